@@ -4,6 +4,8 @@ import java.net.URI;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.spoofer.techinc.state.FieldSubscription;
+
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
@@ -27,6 +29,14 @@ public class Preferences {
 	private static final String PREF_BOOT_START = "boot_start"; // Flag to turn on auto startup
 	private static final String PREF_NOTIFY_VIBRATE = "notify_vibrate";
 	private static final String PREF_NOTIFY_SOUND = "notify_sound";
+	private static final String PREF_UDP_URL = "udp_url";	// Optional compact UDP state location
+	private static final String PREF_UDP_KEY = "udp_key";	// Secret shared with the UDP state responder
+	private static final String PREF_POLL_MIN_TIME = "poll_min_time";	// Shortest poll time the server may ask for
+	private static final String PREF_POLL_MAX_TIME = "poll_max_time";	// Longest poll time the server may ask for
+	private static final String PREF_REQUEST_BURST = "request_burst";	// Most requests allowed in a burst
+	private static final String PREF_REQUEST_RATE = "request_rate";	// Sustained requests per hour
+	private static final String PREF_STATUS_FIELDS = "status_fields";	// Fields of a JSON status to notify changes to
+	private static final String PREF_PREFETCH_PAGE = "prefetch_page";	// Flag to fetch the open URL page when the space opens
 
 
 	private static final String PREFERENCE_NAME = "techinc";	// Name of the private preferences
@@ -38,6 +48,14 @@ public class Preferences {
 	public static final boolean DEFAULT_BOOT_START = true;
 	public static final boolean DEFAULT_NOTIFY_VIBRATE = false;
 	public static final String DEFAULT_NOTIFY_SOUND = ""; // No notify sound by default
+	public static final String DEFAULT_UDP_URL = "";	// No UDP state by default, poll over http only
+	public static final String DEFAULT_UDP_KEY = "";
+	public static final long DEFAULT_POLL_MIN_TIME = 60;  // One minute
+	public static final long DEFAULT_POLL_MAX_TIME = 60 * 60;  // One hour
+	public static final long DEFAULT_REQUEST_BURST = 5;
+	public static final long DEFAULT_REQUEST_RATE = 60;  // One a minute
+	public static final String DEFAULT_STATUS_FIELDS = "";	// No field notifications by default
+	public static final boolean DEFAULT_PREFETCH_PAGE = false;
 	
 
 	private final SharedPreferences sharedPrefs;
@@ -70,6 +88,20 @@ public class Preferences {
 		
 		return isChanged ? changedProperties.get(name) : getPrefValue(name, defaultValue);
 	}
+	/**
+	 * Gets the named long value from preferences, as getValue, without boxing the value.
+	 * 
+	 * @param name The named of the value
+	 * @param defaultValue the value to return if the named value does not exist.
+	 * @return the last updated value of the named preference or the default value.
+	 */
+	private long getLongValue(String name, long defaultValue) {
+		if (isDirty() && changedProperties.containsKey(name))
+			return ((Long)changedProperties.get(name)).longValue();
+		
+		return sharedPrefs.getLong(name, defaultValue);
+	}
+	
 	/**
 	 * Sets the named preference with the given value.
 	 * The value is NOT committed to persistent storage until the preferences are commited.
@@ -93,7 +125,28 @@ public class Preferences {
 	public boolean isDirty() {
 		return null != changedProperties && changedProperties.size() > 0;
 	}
-	
+
+
+	/**
+	 * Registers a listener to be informed when any of the committed preferences change.
+	 * Changes which have been set but not yet committed are not reported.
+	 * The underlying store only holds a weak reference to the listener, so the caller must keep a reference to it.
+	 *
+	 * @param listener the listener to call when a preference is committed.
+	 */
+	public void registerChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+		sharedPrefs.registerOnSharedPreferenceChangeListener(listener);
+	}
+
+	/**
+	 * Removes a listener previously registered with registerChangeListener.
+	 *
+	 * @param listener the listener to remove.
+	 */
+	public void unregisterChangeListener(SharedPreferences.OnSharedPreferenceChangeListener listener) {
+		sharedPrefs.unregisterOnSharedPreferenceChangeListener(listener);
+	}
+
 	
 	
 	
@@ -151,7 +204,7 @@ public class Preferences {
 	 * @return the number of seconds between each polling of the remote site.
 	 */
 	public long getPollDelay() {
-		return Long.valueOf((Long)getValue(PREF_POLL_TIME, DEFAULT_POLL_TIME));
+		return getLongValue(PREF_POLL_TIME, DEFAULT_POLL_TIME);
 
 	}
 	public void setPollDelay(long pollDelay) throws IllegalArgumentException {
@@ -190,6 +243,133 @@ public class Preferences {
 	}
 	
 	
+	/**
+	 * Gets the location of the compact UDP state responder, as udp://host:port
+	 * When set, the state is read over UDP first, falling back to the poll URL if there is no valid reply.
+	 * 
+	 * @return the UDP state location, or an empty string if the space only supports http.
+	 */
+	public String getUdpURL() {
+		return getValue(PREF_UDP_URL, DEFAULT_UDP_URL).toString();
+	}
+
+	/**
+	 * Sets the location of the compact UDP state responder.
+	 * 
+	 * @param udpURL the location as udp://host:port, or an empty string to poll over http only.
+	 * @throws IllegalArgumentException if the given location is not a valid URI.
+	 */
+	public void setUdpURL(String udpURL) throws IllegalArgumentException {
+		String udpURLChecked = udpURL.length() > 0 ? URI.create(udpURL).toASCIIString() : udpURL;
+		setValue(PREF_UDP_URL, udpURLChecked);
+	}
+	
+	
+	public String getUdpKey() {
+		return getValue(PREF_UDP_KEY, DEFAULT_UDP_KEY).toString();
+	}
+	public void setUdpKey(String udpKey) {
+		setValue(PREF_UDP_KEY, udpKey);
+	}
+	
+	
+	/**
+	 * Gets the fields of the space's JSON status, when the poll URL returns one, whose changes are notified.
+	 * A comma separated list of dotted paths, each optionally with a threshold,
+	 * such as 'sensors.people_now_present.0.value>=1, state.message'.
+	 * 
+	 * @return the subscribed fields, empty for none.
+	 */
+	public String getStatusFields() {
+		return getValue(PREF_STATUS_FIELDS, DEFAULT_STATUS_FIELDS).toString();
+	}
+	public void setStatusFields(String statusFields) throws IllegalArgumentException {
+		FieldSubscription.parseList(statusFields);
+		setValue(PREF_STATUS_FIELDS, statusFields);
+	}
+	
+	
+	/**
+	 * Gets if the open URL page is fetched and cached when the space opens, while on wifi or charging,
+	 * so the open notification shows it straight away from the cache.
+	 */
+	public boolean getPrefetchPage() {
+		return Boolean.valueOf((Boolean)getValue(PREF_PREFETCH_PAGE, DEFAULT_PREFETCH_PAGE));
+	}
+	public void setPrefetchPage(boolean prefetchPage) {
+		setValue(PREF_PREFETCH_PAGE, prefetchPage);
+	}
+	
+	
+	/**
+	 * Gets the shortest delay, in seconds, between polls which the server may ask for.
+	 * When the server suggests when to poll next, through its response headers, the suggestion is held between the
+	 * minimum and maximum poll delays.  Without a suggestion the poll delay is used.
+	 * 
+	 * @return the shortest server directed delay in seconds.
+	 */
+	public long getMinPollDelay() {
+		return getLongValue(PREF_POLL_MIN_TIME, DEFAULT_POLL_MIN_TIME);
+	}
+	public void setMinPollDelay(long minPollDelay) throws IllegalArgumentException {
+		if (minPollDelay < 1) {
+			Log.e(LOG_TAG, "minimum poll delay invalid, must be a minimum of one second. reverting to default of " + DEFAULT_POLL_MIN_TIME);
+			minPollDelay = DEFAULT_POLL_MIN_TIME;
+		}
+		setValue(PREF_POLL_MIN_TIME, minPollDelay);
+	}
+	
+	/**
+	 * Gets the longest delay, in seconds, between polls which the server may ask for.
+	 * 
+	 * @return the longest server directed delay in seconds.
+	 */
+	public long getMaxPollDelay() {
+		return getLongValue(PREF_POLL_MAX_TIME, DEFAULT_POLL_MAX_TIME);
+	}
+	public void setMaxPollDelay(long maxPollDelay) throws IllegalArgumentException {
+		if (maxPollDelay < 1) {
+			Log.e(LOG_TAG, "maximum poll delay invalid, must be a minimum of one second. reverting to default of " + DEFAULT_POLL_MAX_TIME);
+			maxPollDelay = DEFAULT_POLL_MAX_TIME;
+		}
+		setValue(PREF_POLL_MAX_TIME, maxPollDelay);
+	}
+	
+	
+	/**
+	 * Gets the most requests which may be made to the state server in a burst, such as repeated presses of Start.
+	 * 
+	 * @return the largest burst of requests.
+	 */
+	public long getRequestBurst() {
+		return getLongValue(PREF_REQUEST_BURST, DEFAULT_REQUEST_BURST);
+	}
+	public void setRequestBurst(long requestBurst) throws IllegalArgumentException {
+		if (requestBurst < 1) {
+			Log.e(LOG_TAG, "request burst invalid, must be at least one. reverting to default of " + DEFAULT_REQUEST_BURST);
+			requestBurst = DEFAULT_REQUEST_BURST;
+		}
+		setValue(PREF_REQUEST_BURST, requestBurst);
+	}
+	
+	/**
+	 * Gets the sustained number of requests per hour which may be made to the state server, however they are started.
+	 * Polls beyond this are put off until a request is allowed.
+	 * 
+	 * @return the requests allowed per hour.
+	 */
+	public long getRequestRate() {
+		return getLongValue(PREF_REQUEST_RATE, DEFAULT_REQUEST_RATE);
+	}
+	public void setRequestRate(long requestRate) throws IllegalArgumentException {
+		if (requestRate < 1) {
+			Log.e(LOG_TAG, "request rate invalid, must be at least one an hour. reverting to default of " + DEFAULT_REQUEST_RATE);
+			requestRate = DEFAULT_REQUEST_RATE;
+		}
+		setValue(PREF_REQUEST_RATE, requestRate);
+	}
+	
+	
 	/**
 	 * Saves any updated preferences to the persistent store.
 	 * If any values have changed since the last commit then these values will be written into the store.
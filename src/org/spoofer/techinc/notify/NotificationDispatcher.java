@@ -0,0 +1,270 @@
+package org.spoofer.techinc.notify;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.spoofer.techinc.Preferences;
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
+
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * The Notification Dispatcher posts and removes Notifications on its own thread, so callers never block on the
+ * Notification system.
+ * Requests are queued by notification id and coalesced, so if several changes arrive for the same id before
+ * they are dispatched, only the latest is posted.
+ * Calls to the NotificationManager are rate limited to one every 'minInterval' milliseconds.
+ * 
+ * The open and closed Notifications are built from templates which are created once and thrown away when the preferences change.
+ * Message notifications, such as changes to status fields, use the template of the state they are shown in.
+ * 
+ * @author rob gilham
+ *
+ */
+public class NotificationDispatcher implements SharedPreferences.OnSharedPreferenceChangeListener {
+
+	private static final String LOG_TAG = NotificationDispatcher.class.getSimpleName();
+
+	private static final String DISPATCH_THREADNAME = "notify_dispatch_thread";
+
+	public static final long DEFAULT_MIN_INTERVAL = 1000;  // One second between each call to the Notification manager
+	
+	
+	private final Context context;
+	private final Preferences preferences;
+	private final NotificationManager notifyManager;
+	private final long minInterval;
+
+	private final HandlerThread dispatchThread;
+	private final Handler dispatchHandler;
+
+	// Latest state, or Message, waiting to be posted, keyed on notification id.  A null state removes the notification.
+	private final Map<Integer, Object> pending = new LinkedHashMap<Integer, Object>();
+	private boolean dispatchScheduled = false;
+	private long lastDispatchTime = 0;
+	private boolean closed = false;
+
+	private volatile NotificationTemplate openTemplate;
+	private volatile NotificationTemplate closedTemplate;
+	
+	
+	
+	public NotificationDispatcher(Context context, Preferences preferences) {
+		this(context, preferences, DEFAULT_MIN_INTERVAL);
+	}
+
+	/**
+	 * Creates a new dispatcher and starts its dispatch thread.
+	 * 
+	 * @param context The Application context
+	 * @param preferences the Preferences used to build the notifications
+	 * @param minInterval the minimum time, in milliseconds, between each call to the Notification manager.
+	 */
+	public NotificationDispatcher(Context context, Preferences preferences, long minInterval) {
+		if (null == context || null == preferences)
+			throw new NullPointerException("context and preferences can not be null");
+		
+		this.context = context;
+		this.preferences = preferences;
+		this.minInterval = minInterval;
+		
+		notifyManager = (NotificationManager)context.getSystemService(Context.NOTIFICATION_SERVICE);
+		
+		dispatchThread = new HandlerThread(DISPATCH_THREADNAME, Process.THREAD_PRIORITY_BACKGROUND);
+		dispatchThread.start();
+		dispatchHandler = new Handler(dispatchThread.getLooper());
+
+		preferences.registerChangeListener(this);
+	}
+
+
+
+	/**
+	 * Queues the notification for the given state.  Returns immediately.
+	 * 
+	 * @param notifyId the id of the notification to post
+	 * @param state true to show the open notification, false the closed one.
+	 */
+	public void showNotification(int notifyId, boolean state) {
+		enqueue(notifyId, Boolean.valueOf(state));
+	}
+
+	/**
+	 * Queues a notification showing the given message.  Returns immediately.
+	 * 
+	 * @param notifyId the id of the notification to post
+	 * @param state the current state, whose icon and settings the notification uses.
+	 * @param message the text to show.
+	 */
+	public void showMessage(int notifyId, boolean state, String message) {
+		enqueue(notifyId, new Message(state, message));
+	}
+
+	/**
+	 * Queues the removal of the given notification.  Returns immediately.
+	 * 
+	 * @param notifyId the id of the notification to remove.
+	 */
+	public void removeNotification(int notifyId) {
+		enqueue(notifyId, null);
+	}
+
+	
+	/**
+	 * Stops the dispatcher.
+	 * Anything still queued is dispatched straight away, ignoring the rate limit, and the dispatch thread is then stopped.
+	 * Any requests made after closing are ignored.
+	 */
+	public void close() {
+		preferences.unregisterChangeListener(this);
+		
+		synchronized (pending) {
+			if (closed)
+				return;
+			closed = true;
+		}
+		
+		dispatchHandler.removeCallbacks(dispatchNext);
+		dispatchHandler.post(new Runnable() {
+			@Override
+			public void run() {
+				while (dispatchOne())
+					;
+				dispatchThread.quit();
+			}
+		});
+	}
+
+
+	/**
+	 * Throws away the notification templates when the preferences change, so the next notification picks up the new settings.
+	 */
+	@Override
+	public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+		Log.v(LOG_TAG, "preferences changed, clearing notification templates");
+		openTemplate = null;
+		closedTemplate = null;
+	}
+	
+	
+	
+	private void enqueue(int notifyId, Object state) {
+		synchronized (pending) {
+			if (closed) {
+				Log.w(LOG_TAG, "notification dispatcher is closed, ignoring notification " + notifyId);
+				return;
+			}
+			
+			pending.put(Integer.valueOf(notifyId), state);
+			
+			if (!dispatchScheduled) {
+				dispatchScheduled = true;
+				long wait = lastDispatchTime + minInterval - SystemClock.elapsedRealtime();
+				dispatchHandler.postDelayed(dispatchNext, Math.max(0, wait));
+			}
+		}
+	}
+
+
+	/**
+	 * Dispatches the oldest pending request and, if more are waiting, schedules itself to run again after the minimum interval.
+	 */
+	private final Runnable dispatchNext = new Runnable() {
+		@Override
+		public void run() {
+			dispatchOne();
+			
+			synchronized (pending) {
+				if (pending.isEmpty() || closed)
+					dispatchScheduled = false;
+				else
+					dispatchHandler.postDelayed(this, minInterval);
+			}
+		}
+	};
+	
+	
+	/**
+	 * Removes the oldest pending request and passes it to the Notification manager.
+	 * Must be called on the dispatch thread.
+	 * 
+	 * @return true if a request was dispatched, false if there was nothing pending.
+	 */
+	private boolean dispatchOne() {
+		Integer notifyId;
+		Object state;
+		
+		synchronized (pending) {
+			Iterator<Map.Entry<Integer, Object>> next = pending.entrySet().iterator();
+			if (!next.hasNext())
+				return false;
+			
+			Map.Entry<Integer, Object> request = next.next();
+			notifyId = request.getKey();
+			state = request.getValue();
+			next.remove();
+			
+			lastDispatchTime = SystemClock.elapsedRealtime();
+		}
+		
+		if (null == state) {
+			Log.d(LOG_TAG, "removing notification " + notifyId);
+			notifyManager.cancel(notifyId.intValue());
+			Trace.event(TraceEvent.NOTIFY, -1);
+			
+		} else if (state instanceof Message) {
+			Message message = (Message)state;
+			Log.d(LOG_TAG, "showing message notification " + notifyId);
+			NotificationTemplate template = getTemplate(message.state);
+			notifyManager.notify(notifyId.intValue(), template.createNotification(System.currentTimeMillis(), message.text));
+			Trace.event(TraceEvent.NOTIFY, 2);
+			
+		} else {
+			boolean open = ((Boolean)state).booleanValue();
+			Log.d(LOG_TAG, "showing notficiation for " + (open ? "open" : "closed"));
+			NotificationTemplate template = getTemplate(open);
+			notifyManager.notify(notifyId.intValue(), template.createNotification(System.currentTimeMillis()));
+			Trace.event(TraceEvent.NOTIFY, open ? 1 : 0);
+		}
+		return true;
+	}
+
+	
+	private NotificationTemplate getTemplate(boolean state) {
+		NotificationTemplate template = state ? openTemplate : closedTemplate;
+		
+		if (null == template) {
+			Log.v(LOG_TAG, "building " + (state ? "open" : "closed") + " notification template");
+			template = new NotificationTemplate(context, preferences, state);
+			
+			if (state)
+				openTemplate = template;
+			else
+				closedTemplate = template;
+		}
+		return template;
+	}
+	
+	
+	/**
+	 * A message waiting to be posted.
+	 */
+	private static final class Message {
+		final boolean state;
+		final String text;
+		
+		Message(boolean state, String text) {
+			this.state = state;
+			this.text = text;
+		}
+	}
+}
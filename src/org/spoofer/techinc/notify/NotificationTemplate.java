@@ -0,0 +1,115 @@
+package org.spoofer.techinc.notify;
+
+import org.spoofer.techinc.Preferences;
+import org.spoofer.techinc.R;
+import org.spoofer.techinc.page.PageViewer;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+
+/**
+ * A Notification Template holds everything needed to build the Notification for one state, resolved once.
+ * The strings, icon, PendingIntent, vibrate pattern and sound are read from the resources and preferences
+ * when the template is built, so posting a notification only needs to stamp the time onto a new Notification.
+ * 
+ * Templates are immutable, when the preferences change a new template should be built.
+ * 
+ * @author rob gilham
+ *
+ */
+public class NotificationTemplate {
+
+	private static final long[] VIBRATE_PATTERN = new long[]{0, 100, 100, 100, 100, 100};
+	
+	private final Context context;
+	private final int icon;
+	private final String titleText;
+	private final String tickerText;
+	private final PendingIntent contentIntent;
+	private final long[] vibrate;
+	private final Uri sound;
+	
+
+	/**
+	 * Builds a new template for the given state, using the current preferences.
+	 * 
+	 * @param context The Application context used to resolve resources and create the PendingIntent
+	 * @param preferences the preferences to read the open url, vibrate and sound settings from.
+	 * @param state true to build the open notification, false to build the closed one.
+	 */
+	public NotificationTemplate(Context context, Preferences preferences, boolean state) {
+		this.context = context;
+		
+		// When the open page is prefetched, the open notification shows it from the cache
+		Intent intent;
+		if (state && preferences.getPrefetchPage()) {
+			intent = new Intent(context, PageViewer.class);
+			intent.setData(Uri.parse(preferences.getOpenURL()));
+		} else {
+			intent = new Intent(Intent.ACTION_VIEW, Uri.parse(preferences.getOpenURL()));
+		}
+		contentIntent = PendingIntent.getActivity(context, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+		
+		titleText = context.getString(R.string.app_name);
+		
+		if (state) {
+			tickerText = context.getString(R.string.notify_open);
+			icon = R.drawable.techinclogo;
+
+		}else{
+			tickerText = context.getString(R.string.notify_closed);
+			icon = R.drawable.techinclogo_mono;
+		}
+		
+		vibrate = preferences.getVibrateNotify() ? VIBRATE_PATTERN : null;
+		
+		String soundURI = preferences.getNotifySound();
+		sound = null != soundURI && soundURI.length() > 0 ? Uri.parse(soundURI) : null;
+	}
+	
+	
+	/**
+	 * Creates a new Notification from this template, stamped with the given time.
+	 * 
+	 * @param when the time, in milliseconds, to show on the notification.
+	 * @return a new Notification ready to be posted.
+	 */
+	public Notification createNotification(long when) {
+		Notification notify = new Notification(icon, tickerText, when);
+		notify.setLatestEventInfo(context, titleText, tickerText, contentIntent);
+		
+		if (null != vibrate)
+			notify.vibrate = vibrate;
+		
+		if (null != sound)
+			notify.sound = sound;
+		
+		return notify;
+	}
+	
+	/**
+	 * Creates a new Notification from this template showing the given message in place of the state,
+	 * which is cleared when selected.
+	 * 
+	 * @param when the time, in milliseconds, to show on the notification.
+	 * @param message the text to show.
+	 * @return a new Notification ready to be posted.
+	 */
+	public Notification createNotification(long when, String message) {
+		Notification notify = new Notification(icon, message, when);
+		notify.setLatestEventInfo(context, titleText, message, contentIntent);
+		notify.flags |= Notification.FLAG_AUTO_CANCEL;
+		
+		if (null != vibrate)
+			notify.vibrate = vibrate;
+		
+		if (null != sound)
+			notify.sound = sound;
+		
+		return notify;
+	}
+	
+}
@@ -0,0 +1,145 @@
+package org.spoofer.techinc.page;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * A Cached Page is a web page fetched ahead of being viewed: its body, content type and where it came from.
+ *
+ * @author rob gilham
+ *
+ */
+public class CachedPage {
+
+	private static final int VERSION = 1;
+	private static final String DEFAULT_MIME_TYPE = "text/html";
+	private static final String DEFAULT_ENCODING = "ISO-8859-1";	// HTTP's default for text
+	private static final String CHARSET = "charset=";
+
+
+	private final String url;
+	private final String baseURL;
+	private final String contentType;
+	private final long fetched;
+	private final byte[] body;
+
+
+	/**
+	 * @param url the URL the page was requested from, its key in the cache.
+	 * @param baseURL the URL the page was finally read from, after any redirects, which its relative links are resolved against.
+	 * @param contentType the Content-Type of the response, may be null.
+	 * @param fetched the time, in milliseconds, the page was fetched.
+	 * @param body the body of the page.
+	 */
+	public CachedPage(String url, String baseURL, String contentType, long fetched, byte[] body) {
+		if (null == url || null == body)
+			throw new NullPointerException("url and body can not be null");
+
+		this.url = url;
+		this.baseURL = null == baseURL ? url : baseURL;
+		this.contentType = null == contentType ? DEFAULT_MIME_TYPE : contentType;
+		this.fetched = fetched;
+		this.body = body;
+	}
+
+
+	public String getURL() {
+		return url;
+	}
+
+	public String getBaseURL() {
+		return baseURL;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return the content type without its parameters, such as text/html.
+	 */
+	public String getMimeType() {
+		int end = contentType.indexOf(';');
+		return (end < 0 ? contentType : contentType.substring(0, end)).trim();
+	}
+
+	/**
+	 * @return the character set named by the content type, or ISO-8859-1 if none is named.
+	 */
+	public String getEncoding() {
+		int start = contentType.toLowerCase().indexOf(CHARSET);
+		if (start < 0)
+			return DEFAULT_ENCODING;
+
+		String encoding = contentType.substring(start + CHARSET.length());
+		int end = encoding.indexOf(';');
+		return (end < 0 ? encoding : encoding.substring(0, end)).replace("\"", "").trim();
+	}
+
+	public long getFetched() {
+		return fetched;
+	}
+
+	public byte[] getBody() {
+		return body;
+	}
+
+	/**
+	 * @return the body decoded with the page's encoding, or ISO-8859-1 if the encoding is unknown.
+	 */
+	public String getText() {
+		try {
+			return new String(body, getEncoding());
+		} catch (UnsupportedEncodingException e) {
+			try {
+				return new String(body, DEFAULT_ENCODING);
+			} catch (UnsupportedEncodingException never) {
+				throw new IllegalStateException(never);
+			}
+		}
+	}
+
+
+	/**
+	 * @return the number of bytes the page takes in the cache.
+	 */
+	public long getSize() {
+		return body.length + url.length() + baseURL.length() + contentType.length();
+	}
+
+	public void write(DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		out.writeUTF(url);
+		out.writeUTF(baseURL);
+		out.writeUTF(contentType);
+		out.writeLong(fetched);
+		out.writeInt(body.length);
+		out.write(body);
+	}
+
+	/**
+	 * Reads a page written by write.
+	 *
+	 * @throws IOException if the page can not be read, or was written by a different version.
+	 */
+	public static CachedPage read(DataInput in) throws IOException {
+		int version = in.readByte();
+		if (VERSION != version)
+			throw new IOException("Unknown page version " + version);
+
+		String url = in.readUTF();
+		String baseURL = in.readUTF();
+		String contentType = in.readUTF();
+		long fetched = in.readLong();
+
+		int length = in.readInt();
+		if (length < 0)
+			throw new IOException("Invalid page length " + length);
+		byte[] body = new byte[length];
+		in.readFully(body);
+
+		return new CachedPage(url, baseURL, contentType, fetched, body);
+	}
+}
@@ -0,0 +1,241 @@
+package org.spoofer.techinc.page;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * The Page Cache keeps prefetched pages on the device, one file per page, up to a total size.
+ * When a new page takes the cache over its size the least recently used pages are removed until it fits.
+ *
+ * The order of use is kept in memory and in the files' modified times, so it carries over restarts.
+ *
+ * @author rob gilham
+ *
+ */
+public class PageCache {
+
+	private static final String LOG_TAG = PageCache.class.getSimpleName();
+
+	public static final long DEFAULT_MAX_SIZE = 2 * 1024 * 1024;
+
+	private static final String CACHE_DIRNAME = "pages";
+	private static final String PAGE_SUFFIX = ".page";
+	private static final String TEMP_SUFFIX = ".new";
+
+	private static PageCache instance;
+
+
+	private final File dir;
+	private final long maxSize;
+
+	// Page files in order of use, least recently used first, with their sizes
+	private final LinkedHashMap<File, Long> pages = new LinkedHashMap<File, Long>(16, 0.75f, true);
+	private long size = 0;
+
+
+	/**
+	 * Gets the cache shared by the application, in its cache directory.
+	 */
+	public static synchronized PageCache getInstance(Context context) {
+		if (null == instance)
+			instance = new PageCache(new File(context.getApplicationContext().getCacheDir(), CACHE_DIRNAME), DEFAULT_MAX_SIZE);
+		return instance;
+	}
+
+	/**
+	 * Opens the cache in the given directory, creating it if needed, and picks up any pages already held there.
+	 *
+	 * @param dir the directory holding the pages.
+	 * @param maxSize the most bytes the pages may take.
+	 */
+	public PageCache(File dir, long maxSize) {
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be positive");
+
+		this.dir = dir;
+		this.maxSize = maxSize;
+
+		if (!dir.isDirectory() && !dir.mkdirs())
+			Log.w(LOG_TAG, "Failed to create page cache " + dir);
+		load();
+	}
+
+
+	/**
+	 * Stores the page, replacing any earlier page from the same URL, and removes the least recently used pages
+	 * until the cache fits its size.
+	 *
+	 * @param page the page to store
+	 * @throws IOException if the page can not be written, or is larger than the whole cache.
+	 */
+	public synchronized void put(CachedPage page) throws IOException {
+		if (page.getSize() > maxSize)
+			throw new IOException("Page of " + page.getSize() + " bytes is larger than the cache");
+
+		File file = getFile(page.getURL());
+		File temp = new File(dir, file.getName() + TEMP_SUFFIX);
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+		try {
+			page.write(out);
+		} finally {
+			out.close();
+		}
+
+		remove(file);
+		if (!temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Failed to rename " + temp + " to " + file);
+		}
+
+		long length = file.length();
+		pages.put(file, Long.valueOf(length));
+		size += length;
+		evict();
+	}
+
+	/**
+	 * Gets the page from the given URL, marking it as the most recently used.
+	 *
+	 * @param url the URL the page was requested from.
+	 * @return the page, or null if it is not held or can not be read.
+	 */
+	public synchronized CachedPage get(String url) {
+		File file = getFile(url);
+		if (null == pages.get(file))
+			return null;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				CachedPage page = CachedPage.read(in);
+				if (!url.equals(page.getURL()))
+					return null;
+
+				file.setLastModified(System.currentTimeMillis());
+				return page;
+
+			} finally {
+				in.close();
+			}
+
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Failed to read cached page " + url + ", removing it. " + e.getMessage());
+			remove(file);
+			return null;
+		}
+	}
+
+	/**
+	 * @return true if a page from the given URL is held, without marking it as used.
+	 */
+	public synchronized boolean contains(String url) {
+		return pages.containsKey(getFile(url));
+	}
+
+	/**
+	 * @return the bytes taken by all the pages held.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return the number of pages held.
+	 */
+	public synchronized int getCount() {
+		return pages.size();
+	}
+
+
+	private void evict() {
+		Iterator<Map.Entry<File, Long>> eldest = pages.entrySet().iterator();
+		while (size > maxSize && eldest.hasNext()) {
+			Map.Entry<File, Long> page = eldest.next();
+			Log.d(LOG_TAG, "Evicting cached page " + page.getKey().getName());
+
+			size -= page.getValue().longValue();
+			page.getKey().delete();
+			eldest.remove();
+		}
+	}
+
+	private void remove(File file) {
+		Long length = pages.remove(file);
+		if (null != length)
+			size -= length.longValue();
+		file.delete();
+	}
+
+	/**
+	 * Picks up the pages already in the directory, in the order they were last used.
+	 */
+	private void load() {
+		File[] files = dir.listFiles(new FileFilter() {
+			@Override
+			public boolean accept(File file) {
+				if (file.getName().endsWith(TEMP_SUFFIX))
+					file.delete();	// Left by a failed put
+				return file.getName().endsWith(PAGE_SUFFIX);
+			}
+		});
+		if (null == files)
+			return;
+
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				long diff = a.lastModified() - b.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+
+		for (File file : files) {
+			long length = file.length();
+			pages.put(file, Long.valueOf(length));
+			size += length;
+		}
+		evict();
+	}
+
+	/**
+	 * Gets the file for a URL, named for the SHA-1 of the URL.
+	 */
+	private File getFile(String url) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(url.getBytes("UTF-8"));
+			StringBuilder name = new StringBuilder(digest.length * 2 + PAGE_SUFFIX.length());
+			for (byte b : digest) {
+				name.append(Character.forDigit((b >> 4) & 0xf, 16));
+				name.append(Character.forDigit(b & 0xf, 16));
+			}
+			return new File(dir, name.append(PAGE_SUFFIX).toString());
+
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
@@ -0,0 +1,148 @@
+package org.spoofer.techinc.page;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.os.BatteryManager;
+import android.util.Log;
+
+/**
+ * The Page Prefetcher fetches a page into the PageCache ahead of it being viewed, so it can be shown straight away.
+ * Only the page itself is fetched, not its images or scripts, and only text pages up to MAX_PAGE_SIZE are kept.
+ *
+ * Fetching is meant for when it costs the user nothing: on wifi, or while the device is charging.
+ *
+ * @author rob gilham
+ *
+ */
+public class PagePrefetcher {
+
+	private static final String LOG_TAG = PagePrefetcher.class.getSimpleName();
+
+	public static final int MAX_PAGE_SIZE = 512 * 1024;
+	public static final long MIN_AGE = 10 * 60 * 1000;	// A page fetched more recently than this is not fetched again
+
+	private static final int TIMEOUT = 20 * 1000;
+	private static final int READ_SIZE = 4096;
+
+
+	private final PageCache cache;
+
+
+	public PagePrefetcher(PageCache cache) {
+		if (null == cache)
+			throw new NullPointerException("cache can not be null");
+		this.cache = cache;
+	}
+
+
+	/**
+	 * Checks if fetching now costs the user nothing: the device is connected over wifi, or is connected and charging.
+	 * Android 2.1 can not tell if a network is metered, so wifi is taken as unmetered and every other network as metered.
+	 */
+	public static boolean isUnmeteredOrCharging(Context context) {
+		ConnectivityManager connectivity = (ConnectivityManager)context.getSystemService(Context.CONNECTIVITY_SERVICE);
+		NetworkInfo network = null == connectivity ? null : connectivity.getActiveNetworkInfo();
+		if (null == network || !network.isConnected())
+			return false;
+
+		if (ConnectivityManager.TYPE_WIFI == network.getType())
+			return true;
+
+		// The battery broadcast is sticky, so registering without a receiver just reads the last one
+		Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+		return null != battery && 0 != battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0);
+	}
+
+
+	/**
+	 * Fetches the page into the cache, unless a copy fetched within MIN_AGE is already held.
+	 *
+	 * @param url the page to fetch.
+	 * @return true if the page was fetched, false if the cached copy is recent enough.
+	 * @throws IOException if the page can not be fetched, is not text, or is larger than MAX_PAGE_SIZE.
+	 */
+	public boolean prefetch(String url) throws IOException {
+		CachedPage cached = cache.get(url);
+		if (null != cached && System.currentTimeMillis() - cached.getFetched() < MIN_AGE) {
+			Log.d(LOG_TAG, "Cached page " + url + " is recent, not fetching it again");
+			return false;
+		}
+
+		try {
+			CachedPage page = fetch(url);
+			cache.put(page);
+			Trace.event(TraceEvent.PREFETCH, page.getBody().length);
+			Log.d(LOG_TAG, "Prefetched " + page.getBody().length + " bytes from " + url);
+			return true;
+
+		} catch (IOException e) {
+			Trace.event(TraceEvent.PREFETCH, -1);
+			throw e;
+		}
+	}
+
+	/**
+	 * Fetches the page.
+	 *
+	 * @param url the page to fetch.
+	 * @return the page.
+	 * @throws IOException if the page can not be fetched, is not text, or is larger than MAX_PAGE_SIZE.
+	 */
+	public CachedPage fetch(String url) throws IOException {
+		URLConnection connect = new URL(url).openConnection();
+		try {
+			connect.setConnectTimeout(TIMEOUT);
+			connect.setReadTimeout(TIMEOUT);
+			connect.connect();
+
+			if (connect instanceof HttpURLConnection) {
+				int code = ((HttpURLConnection)connect).getResponseCode();
+				if (HttpURLConnection.HTTP_OK != code)
+					throw new IOException("Failed to fetch " + url + ", response " + code);
+			}
+
+			String contentType = connect.getContentType();
+			if (null != contentType && !contentType.trim().toLowerCase().startsWith("text/"))
+				throw new IOException("Not fetching " + url + ", it is " + contentType);
+
+			int length = connect.getContentLength();
+			if (length > MAX_PAGE_SIZE)
+				throw new IOException("Not fetching " + url + ", it is " + length + " bytes");
+
+			InputStream in = connect.getInputStream();
+			try {
+				ByteArrayOutputStream body = new ByteArrayOutputStream(length > 0 ? length : READ_SIZE);
+				byte[] buffer = new byte[READ_SIZE];
+				int read;
+				while ((read = in.read(buffer)) >= 0) {
+					if (body.size() + read > MAX_PAGE_SIZE)
+						throw new IOException("Not fetching " + url + ", it is over " + MAX_PAGE_SIZE + " bytes");
+					body.write(buffer, 0, read);
+				}
+
+				return new CachedPage(url, connect.getURL().toExternalForm(), contentType, System.currentTimeMillis(), body.toByteArray());
+
+			} finally {
+				in.close();
+			}
+			
+		} finally {
+			// Also when the page is rejected part way, so an unread response does not keep hold of its socket
+			if (connect instanceof HttpURLConnection)
+				((HttpURLConnection)connect).disconnect();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package org.spoofer.techinc.page;
+
+import android.app.Activity;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Bundle;
+import android.util.Log;
+import android.webkit.WebView;
+
+/**
+ * The Page Viewer shows a page from the PageCache, so a prefetched page appears straight away.
+ * The page's URL is the data of the starting Intent.  If the page is not cached it is opened in the browser instead.
+ * 
+ * Scripts are not run and links open in the browser, keeping the viewer light.
+ * 
+ * @author rob gilham
+ *
+ */
+public class PageViewer extends Activity {
+
+	private static final String LOG_TAG = PageViewer.class.getSimpleName();
+
+	private WebView webView;
+	
+
+	@Override
+	public void onCreate(Bundle savedInstanceState) {
+		super.onCreate(savedInstanceState);
+
+		Uri uri = getIntent().getData();
+		if (null == uri) {
+			finish();
+			return;
+		}
+		
+		String url = uri.toString();
+		CachedPage page = PageCache.getInstance(getApplicationContext()).get(url);
+		if (null == page) {
+			Log.d(LOG_TAG, "No cached page for " + url + ", opening the browser");
+			startActivity(new Intent(Intent.ACTION_VIEW, uri));
+			finish();
+			return;
+		}
+		
+		Log.d(LOG_TAG, "Showing page cached from " + url);
+		webView = new WebView(this);
+		webView.getSettings().setBuiltInZoomControls(true);
+		webView.loadDataWithBaseURL(page.getBaseURL(), page.getText(), page.getMimeType(), page.getEncoding(), url);
+		setContentView(webView);
+	}
+	
+	@Override
+	protected void onDestroy() {
+		super.onDestroy();
+		if (null != webView) {
+			webView.destroy();
+			webView = null;
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package org.spoofer.techinc.schedule;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The Poll Scheduler keeps the next poll deadline of many endpoints, each followed at its own interval and jitter,
+ * behind a single system alarm.
+ *
+ * The deadlines are held in a TimerWheel, and only the earliest is armed as the alarm.  When the alarm goes off,
+ * expire hands back every endpoint which fell due in that tick, as one batch, and arms the alarm for the next.
+ * The alarm is only set again when the earliest deadline moves, so following more endpoints does not mean more alarms.
+ *
+ * Time is passed in, rather than read, so the scheduler can be driven by a simulated clock.
+ *
+ * @author rob gilham
+ *
+ */
+public class PollScheduler<K> {
+
+	public static final int DEFAULT_SLOTS = 512;
+	public static final long DEFAULT_TICK = 1000;
+
+
+	/**
+	 * The single system alarm the scheduler wakes by.
+	 */
+	public interface Alarm {
+
+		/**
+		 * Sets the alarm, replacing any set before.
+		 * @param triggerAtTime the time, in milliseconds, the alarm should go off.
+		 */
+		void set(long triggerAtTime);
+
+		/**
+		 * Cancels the alarm, as no endpoint is due.
+		 */
+		void cancel();
+	}
+
+
+	/**
+	 * How often an endpoint is polled.
+	 */
+	private static class Interval {
+		final long interval;
+		final long jitter;
+
+		Interval(long interval, long jitter) {
+			this.interval = interval;
+			this.jitter = jitter;
+		}
+	}
+
+
+	private final Alarm alarm;
+	private final TimerWheel<K> wheel;
+	private final Random random;
+
+	private final Map<K, Interval> followed = new HashMap<K, Interval>();
+	private long armedTime = -1;	// The time the alarm is set for, -1 if it is not set
+
+
+	public PollScheduler(Alarm alarm, long now) {
+		this(alarm, DEFAULT_SLOTS, DEFAULT_TICK, now, new Random());
+	}
+
+	/**
+	 * @param alarm the system alarm.
+	 * @param slots the number of slots in the wheel.
+	 * @param tickMillis the length of a tick in milliseconds, endpoints due within the same tick are woken for together.
+	 * @param now the current time in milliseconds.
+	 * @param random the source of the jitter.
+	 */
+	public PollScheduler(Alarm alarm, int slots, long tickMillis, long now, Random random) {
+		if (null == alarm || null == random)
+			throw new NullPointerException("alarm and random can not be null");
+
+		this.alarm = alarm;
+		this.wheel = new TimerWheel<K>(slots, tickMillis, now);
+		this.random = random;
+	}
+
+
+	/**
+	 * Follows an endpoint, polling it every interval, give or take up to jitter, starting one interval from now.
+	 * Following an endpoint again changes its interval and restarts it.
+	 *
+	 * @param key the endpoint.
+	 * @param interval the delay between polls, in milliseconds.
+	 * @param jitter the most, in milliseconds, each delay is moved earlier or later, spreading out polls which would
+	 * otherwise fall due together.
+	 * @param now the current time in milliseconds.
+	 */
+	public synchronized void follow(K key, long interval, long jitter, long now) {
+		if (interval < 1 || jitter < 0)
+			throw new IllegalArgumentException("interval must be positive and jitter can not be negative");
+
+		Interval every = new Interval(interval, Math.min(jitter, interval));
+		followed.put(key, every);
+		wheel.schedule(key, now + getDelay(every));
+		arm();
+	}
+
+	/**
+	 * Stops following the endpoint, and removes its next poll.
+	 * @return true if the endpoint had a next poll.
+	 */
+	public synchronized boolean unfollow(K key) {
+		followed.remove(key);
+		boolean removed = wheel.cancel(key);
+		arm();
+		return removed;
+	}
+
+	/**
+	 * Sets when the endpoint is next polled, in place of its interval.
+	 * A followed endpoint returns to its interval after that poll, any other endpoint is polled once.
+	 *
+	 * @param key the endpoint.
+	 * @param delay the delay until the next poll, in milliseconds.
+	 * @param now the current time in milliseconds.
+	 */
+	public synchronized void schedule(K key, long delay, long now) {
+		wheel.schedule(key, now + Math.max(0, delay));
+		arm();
+	}
+
+	/**
+	 * @return true if the endpoint has a next poll.
+	 */
+	public synchronized boolean isScheduled(K key) {
+		return wheel.contains(key);
+	}
+
+	/**
+	 * @return the time, in milliseconds, of the endpoint's next poll, rounded up to its tick, or -1 if it has none.
+	 */
+	public synchronized long getNextPoll(K key) {
+		return wheel.getExpiry(key);
+	}
+
+	/**
+	 * @return the number of endpoints with a next poll.
+	 */
+	public synchronized int size() {
+		return wheel.size();
+	}
+
+
+	/**
+	 * Takes the endpoints which have fallen due, schedules the next poll of those followed, and arms the alarm
+	 * for the next endpoint due.  Called when the alarm goes off.
+	 *
+	 * @param now the current time in milliseconds.
+	 * @param due the list the endpoints to poll now are added to.
+	 * @return the number of endpoints to poll now.
+	 */
+	public synchronized int expire(long now, List<K> due) {
+		int start = due.size();
+		int count = wheel.expire(now, due);
+
+		for (int i = start; i < start + count; i++) {
+			K key = due.get(i);
+			Interval every = followed.get(key);
+			if (null != every)
+				wheel.schedule(key, now + getDelay(every));
+		}
+
+		armedTime = -1;	// Gone off, or about to, so is set again even for the same time
+		arm();
+		return count;
+	}
+
+
+	/**
+	 * Sets the alarm for the earliest deadline, if it has moved.
+	 */
+	private void arm() {
+		long next = wheel.getNextExpiry();
+		if (next == armedTime)
+			return;
+
+		armedTime = next;
+		if (next < 0)
+			alarm.cancel();
+		else
+			alarm.set(next);
+	}
+
+	private long getDelay(Interval every) {
+		if (0 == every.jitter)
+			return every.interval;
+		return every.interval + (long)((random.nextDouble() * 2 - 1) * every.jitter);
+	}
+}
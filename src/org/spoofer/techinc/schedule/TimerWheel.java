@@ -0,0 +1,223 @@
+package org.spoofer.techinc.schedule;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A Timer Wheel holds one deadline for each of many keys, and hands back every key whose deadline has passed.
+ *
+ * Time is cut into ticks, and the wheel is a ring of slots, one per tick, which a deadline is hashed into by its tick.
+ * Deadlines more than a turn of the wheel away share a slot with nearer ones and are simply passed over until their
+ * turn comes round.  Scheduling and cancelling a deadline take the same time however many keys are held, and expiring
+ * only visits the slots of the ticks which have passed.  Every deadline in the same tick expires together.
+ *
+ * Time is passed in, rather than read, so the wheel can be driven by a simulated clock.
+ * A wheel is not thread safe.
+ *
+ * @author rob gilham
+ *
+ */
+public class TimerWheel<K> {
+
+	/**
+	 * A deadline, linked into the list of its slot.
+	 */
+	private static class Timeout<K> {
+		final K key;
+		long tick;
+		Timeout<K> prev;
+		Timeout<K> next;
+
+		Timeout(K key) {
+			this.key = key;
+		}
+	}
+
+
+	private final long tickMillis;
+	private final Timeout<K>[] slots;
+	private final int mask;
+
+	private final Map<K, Timeout<K>> timeouts = new HashMap<K, Timeout<K>>();
+	private long currentTick;	// The last tick expired, every deadline held is in a later tick
+	private long nextTick = -1;	// The earliest tick of any deadline held, -1 if not known
+
+
+	/**
+	 * @param slots the number of slots, rounded up to a power of two.  A turn of the wheel should cover the usual deadline.
+	 * @param tickMillis the length of a tick in milliseconds.
+	 * @param now the current time in milliseconds.
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public TimerWheel(int slots, long tickMillis, long now) {
+		if (slots < 1 || tickMillis < 1)
+			throw new IllegalArgumentException("slots and tickMillis must be positive");
+
+		int size = 1;
+		while (size < slots)
+			size <<= 1;
+
+		this.tickMillis = tickMillis;
+		this.slots = new Timeout[size];
+		this.mask = size - 1;
+		this.currentTick = now / tickMillis;
+	}
+
+
+	/**
+	 * Sets the deadline of the key, replacing any it already has.
+	 * A deadline which has already passed expires at the next tick.
+	 *
+	 * @param key the key.
+	 * @param deadline the time, in milliseconds, the key falls due.
+	 */
+	public void schedule(K key, long deadline) {
+		Timeout<K> timeout = timeouts.get(key);
+		if (null == timeout) {
+			timeout = new Timeout<K>(key);
+			timeouts.put(key, timeout);
+		} else {
+			unlink(timeout);
+			if (timeout.tick == nextTick)
+				nextTick = -1;	// May be moving later, so the earliest is found again when next asked for
+		}
+
+		// Rounded up, so a key never expires before its deadline
+		timeout.tick = Math.max(currentTick + 1, (deadline + tickMillis - 1) / tickMillis);
+		link(timeout);
+
+		if (nextTick >= 0 && timeout.tick < nextTick)
+			nextTick = timeout.tick;
+	}
+
+	/**
+	 * Removes the key's deadline.
+	 * @return true if the key had a deadline.
+	 */
+	public boolean cancel(K key) {
+		Timeout<K> timeout = timeouts.remove(key);
+		if (null == timeout)
+			return false;
+
+		unlink(timeout);
+		if (timeout.tick == nextTick)
+			nextTick = -1;
+		return true;
+	}
+
+	/**
+	 * @return true if the key has a deadline.
+	 */
+	public boolean contains(K key) {
+		return timeouts.containsKey(key);
+	}
+
+	/**
+	 * @return the number of keys with a deadline.
+	 */
+	public int size() {
+		return timeouts.size();
+	}
+
+	/**
+	 * @return the time, in milliseconds, of the tick the key will expire in, or -1 if it has no deadline.
+	 */
+	public long getExpiry(K key) {
+		Timeout<K> timeout = timeouts.get(key);
+		return null == timeout ? -1 : timeout.tick * tickMillis;
+	}
+
+
+	/**
+	 * Removes the keys whose deadlines have passed.
+	 *
+	 * @param now the current time in milliseconds.
+	 * @param due the list the keys which fell due are added to.
+	 * @return the number of keys which fell due.
+	 */
+	public int expire(long now, List<K> due) {
+		long target = now / tickMillis;
+		if (target <= currentTick)
+			return 0;
+
+		// A turn of the wheel visits every slot, so a longer gap need not visit any slot twice
+		long last = Math.min(target, currentTick + slots.length);
+		int count = 0;
+
+		for (long tick = currentTick + 1; tick <= last; tick++) {
+			Timeout<K> timeout = slots[(int)(tick & mask)];
+			while (null != timeout) {
+				Timeout<K> next = timeout.next;
+				if (timeout.tick <= target) {
+					unlink(timeout);
+					timeouts.remove(timeout.key);
+					due.add(timeout.key);
+					count++;
+				}
+				timeout = next;
+			}
+		}
+
+		currentTick = target;
+		if (nextTick <= target)
+			nextTick = -1;
+		return count;
+	}
+
+	/**
+	 * Gets when expire will next find a key due: the start of the earliest tick holding a deadline.
+	 * @return the time in milliseconds, or -1 if no key has a deadline.
+	 */
+	public long getNextExpiry() {
+		if (timeouts.isEmpty())
+			return -1;
+		if (nextTick < 0)
+			nextTick = findNextTick();
+		return nextTick * tickMillis;
+	}
+
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+
+	/**
+	 * Finds the earliest tick of any deadline, by visiting the slots in the order their ticks come round.
+	 * A deadline in the slot's own tick is the earliest there can be, so the search stops at the first one found.
+	 */
+	private long findNextTick() {
+		long earliest = Long.MAX_VALUE;
+		for (int offset = 1; offset <= slots.length; offset++) {
+			long tick = currentTick + offset;
+			if (tick >= earliest)
+				break;
+
+			for (Timeout<K> timeout = slots[(int)(tick & mask)]; null != timeout; timeout = timeout.next) {
+				if (timeout.tick < earliest)
+					earliest = timeout.tick;
+			}
+		}
+		return earliest;
+	}
+
+	private void link(Timeout<K> timeout) {
+		int slot = (int)(timeout.tick & mask);
+		timeout.prev = null;
+		timeout.next = slots[slot];
+		if (null != timeout.next)
+			timeout.next.prev = timeout;
+		slots[slot] = timeout;
+	}
+
+	private void unlink(Timeout<K> timeout) {
+		if (null == timeout.prev)
+			slots[(int)(timeout.tick & mask)] = timeout.next;
+		else
+			timeout.prev.next = timeout.next;
+		if (null != timeout.next)
+			timeout.next.prev = timeout.prev;
+		timeout.prev = null;
+		timeout.next = null;
+	}
+}
@@ -0,0 +1,125 @@
+package org.spoofer.techinc.sim;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.spoofer.techinc.state.AdaptivePollPolicy;
+import org.spoofer.techinc.state.FixedPollPolicy;
+import org.spoofer.techinc.state.PollPolicy;
+import org.spoofer.techinc.state.StateDecider;
+
+/**
+ * The Poll Simulator replays a Timeline against a PollPolicy and StateDecider in virtual time,
+ * the same way the StateEngine polls, decides and schedules on the device.
+ * Every poll reads the true state from the timeline, so a year of history replays in well under a second.
+ * 
+ * The simulator reports the number of requests, the changes missed and the percentiles of the time between a change
+ * and its notification.  Every change is either notified or missed, a change is missed when it is reversed or replaced
+ * before it is notified, or the timeline ends first.  The engine arms one alarm for each poll, so the request count is
+ * also the number of times the device is woken.
+ * 
+ * The simulator needs nothing from Android, so is compiled and run from the desktop, against a recorded history
+ * or a synthetic year:
+ * 	javac -d /tmp/techinc-sim -sourcepath src src/org/spoofer/techinc/sim/PollSimulator.java
+ * 	java -cp /tmp/techinc-sim org.spoofer.techinc.sim.PollSimulator [history file]
+ * 
+ * @author rob gilham
+ *
+ */
+public class PollSimulator {
+
+	private static final long SECOND = 1000L;
+	private static final long MINUTE = 60 * SECOND;
+	
+	
+	private final Timeline timeline;
+	
+	
+	public PollSimulator(Timeline timeline) {
+		this.timeline = timeline;
+	}
+
+	
+	/**
+	 * Replays the timeline with the given policy and decider.
+	 * The first poll is made at the start of the timeline and the last poll is the last one due before its end.
+	 * 
+	 * @param name the name to report the result under
+	 * @param policy the policy deciding the delay between polls.  Should be a new instance, as policies may hold state.
+	 * @param decider the decider deciding when to notify.  Should be a new instance.
+	 * @return the result of the replay.
+	 */
+	public SimulationResult run(String name, PollPolicy policy, StateDecider decider) {
+		int count = timeline.getChangeCount();
+		long[] latencies = new long[count];
+		int detected = 0;
+		int missed = 0;
+		long requests = 0;
+		
+		boolean state = timeline.getInitialState();
+		int next = 0;			// the next change yet to happen
+		int undetected = -1;	// the latest change which has happened but not been notified
+		
+		long now = timeline.getStart();
+		while (now < timeline.getEnd()) {
+			
+			while (next < count && timeline.getChangeTime(next) <= now) {
+				if (undetected >= 0)
+					missed++;	// Reversed or replaced before a poll saw it
+				state = timeline.getChangeState(next);
+				undetected = next++;
+			}
+			
+			requests++;
+			boolean changed = decider.update(state);
+			
+			if (undetected >= 0) {
+				if (changed) {
+					latencies[detected++] = now - timeline.getChangeTime(undetected);
+					undetected = -1;
+					
+				} else if (state == decider.getLastState().booleanValue()) {
+					missed++;	// Changed back to the notified state before a poll confirmed it
+					undetected = -1;
+				}
+			}
+			
+			now += policy.getNextPollDelay(state, changed);
+		}
+		
+		// Whatever was not notified by the end never will be
+		if (undetected >= 0)
+			missed++;
+		missed += count - next;
+		
+		long[] result = new long[detected];
+		System.arraycopy(latencies, 0, result, 0, detected);
+		
+		return new SimulationResult(name, timeline.getEnd() - timeline.getStart(), requests, count, missed, result);
+	}
+	
+	
+	public static void main(String[] args) {
+		Timeline timeline;
+		try {
+			timeline = args.length > 0 ? Timeline.read(new File(args[0])) : Timeline.synthetic(0, 365, 1);
+		
+		} catch (IOException e) {
+			System.err.println("Failed to read history: " + e.getMessage());
+			System.exit(1);
+			return;
+		}
+		
+		PollSimulator simulator = new PollSimulator(timeline);
+		long started = System.currentTimeMillis();
+
+		System.out.println(simulator.run("fixed 60s", new FixedPollPolicy(60 * SECOND), new StateDecider()));
+		System.out.println(simulator.run("fixed 3m (default)", new FixedPollPolicy(3 * MINUTE), new StateDecider()));
+		System.out.println(simulator.run("fixed 10m", new FixedPollPolicy(10 * MINUTE), new StateDecider()));
+		System.out.println(simulator.run("fixed 60s, 2 confirmations", new FixedPollPolicy(60 * SECOND), new StateDecider(2)));
+		System.out.println(simulator.run("adaptive 60s-10m x1.5", new AdaptivePollPolicy(60 * SECOND, 10 * MINUTE, 1.5), new StateDecider()));
+		System.out.println(simulator.run("adaptive 30s-15m x2", new AdaptivePollPolicy(30 * SECOND, 15 * MINUTE, 2.0), new StateDecider()));
+
+		System.out.println("replayed in " + (System.currentTimeMillis() - started) + "ms");
+	}
+}
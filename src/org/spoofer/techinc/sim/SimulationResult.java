@@ -0,0 +1,87 @@
+package org.spoofer.techinc.sim;
+
+import java.util.Arrays;
+
+/**
+ * The results of replaying one policy against a timeline.
+ * 
+ * @author rob gilham
+ *
+ */
+public class SimulationResult {
+
+	private final String name;
+	private final long duration;
+	private final long requests;
+	private final int transitions;
+	private final int missed;
+	private final long[] latencies;
+	
+	
+	SimulationResult(String name, long duration, long requests, int transitions, int missed, long[] latencies) {
+		this.name = name;
+		this.duration = duration;
+		this.requests = requests;
+		this.transitions = transitions;
+		this.missed = missed;
+		this.latencies = latencies;
+		Arrays.sort(this.latencies);
+	}
+	
+	
+	public String getName() {
+		return name;
+	}
+	
+	/**
+	 * @return the number of polls made to the server, each woken by its own alarm.
+	 */
+	public long getRequests() {
+		return requests;
+	}
+	
+	/**
+	 * @return the number of changes in the timeline, each one is either detected or missed.
+	 */
+	public int getTransitions() {
+		return transitions;
+	}
+
+	/**
+	 * @return the number of changes which were never notified, as they were reversed or replaced first, or the timeline ended.
+	 */
+	public int getMissed() {
+		return missed;
+	}
+	
+	/**
+	 * @return the number of changes which were notified.
+	 */
+	public int getDetected() {
+		return latencies.length;
+	}
+	
+	/**
+	 * Gets the given percentile of the time between a change and its notification.
+	 * 
+	 * @param percentile the percentile, from 0 to 100
+	 * @return the detection latency in milliseconds, or -1 if nothing was detected.
+	 */
+	public long getLatencyPercentile(double percentile) {
+		if (latencies.length == 0)
+			return -1;
+		
+		int index = (int)Math.ceil(percentile / 100.0 * latencies.length) - 1;
+		return latencies[Math.max(0, Math.min(latencies.length - 1, index))];
+	}
+
+	
+	@Override
+	public String toString() {
+		double days = duration / (24 * 60 * 60 * 1000.0);
+		return String.format("%-32s requests %8d (%7.1f/day)  changes %5d  missed %4d  latency p50 %6.1fs p90 %6.1fs p99 %6.1fs max %6.1fs",
+				name, requests, requests / days, transitions, missed,
+				getLatencyPercentile(50) / 1000.0, getLatencyPercentile(90) / 1000.0,
+				getLatencyPercentile(99) / 1000.0, getLatencyPercentile(100) / 1000.0);
+	}
+}
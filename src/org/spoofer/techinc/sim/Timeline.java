@@ -0,0 +1,216 @@
+package org.spoofer.techinc.sim;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * A Timeline is the true history of a space's state: its state at the start and the time of every change after that.
+ * Timelines are read from a recorded history file or generated.
+ * 
+ * The history file has one change per line, as the time in milliseconds since the epoch followed by 'open' or 'closed'.
+ * Blank lines and lines starting with '#' are ignored.  The first line gives the starting state, and each line after it
+ * must be later than the one before and change the state.
+ * 
+ * @author rob gilham
+ *
+ */
+public class Timeline {
+
+	private static final long HOUR = 60 * 60 * 1000L;
+	private static final long DAY = 24 * HOUR;
+	
+	private final long start;
+	private final long end;
+	private final boolean initialState;
+	private final long[] times;
+	private final boolean[] states;
+	
+
+	/**
+	 * @param start the time the timeline starts, in milliseconds
+	 * @param end the time the timeline ends, in milliseconds
+	 * @param initialState the state at the start
+	 * @param times the time of each change, in ascending order, from the start to the end
+	 * @param states the state after each change, each one different to the state before it
+	 */
+	public Timeline(long start, long end, boolean initialState, long[] times, boolean[] states) {
+		if (times.length != states.length)
+			throw new IllegalArgumentException("times and states must be the same length");
+		if (end < start)
+			throw new IllegalArgumentException("the timeline ends before it starts");
+		
+		for (int i = 0; i < times.length; i++) {
+			if (times[i] < start || times[i] > end || (i > 0 && times[i] <= times[i - 1]))
+				throw new IllegalArgumentException("change " + i + " is out of order or outside the timeline");
+			if (states[i] == (i > 0 ? states[i - 1] : initialState))
+				throw new IllegalArgumentException("change " + i + " does not change the state");
+		}
+		
+		this.start = start;
+		this.end = end;
+		this.initialState = initialState;
+		this.times = times;
+		this.states = states;
+	}
+
+	
+	/**
+	 * Reads a timeline from a recorded history file.
+	 * The timeline runs from the first entry to the last.
+	 * 
+	 * @throws IOException if the file can not be read, or a line is invalid, out of order or does not change the state.
+	 */
+	public static Timeline read(File file) throws IOException {
+		long[] times = new long[64];
+		boolean[] states = new boolean[64];
+		int count = 0;
+		
+		BufferedReader in = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while (null != (line = in.readLine())) {
+				line = line.trim();
+				if (line.length() == 0 || line.startsWith("#"))
+					continue;
+				
+				String[] fields = line.split("\\s+");
+				if (fields.length < 2)
+					throw new IOException("Invalid history line: " + line);
+				
+				if (count == times.length) {
+					times = grow(times);
+					states = grow(states);
+				}
+				try {
+					times[count] = Long.parseLong(fields[0]);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid time in history line: " + line);
+				}
+				if (count > 0 && times[count] <= times[count - 1])
+					throw new IOException("History line out of order: " + line);
+				
+				if ("open".equalsIgnoreCase(fields[1]))
+					states[count] = true;
+				else if ("closed".equalsIgnoreCase(fields[1]))
+					states[count] = false;
+				else
+					throw new IOException("Invalid state in history line: " + line);
+				if (count > 0 && states[count] == states[count - 1])
+					throw new IOException("History line does not change the state: " + line);
+				count++;
+			}
+		} finally {
+			in.close();
+		}
+		
+		if (count == 0)
+			throw new IOException("History file " + file + " is empty");
+		
+		long[] changeTimes = new long[count - 1];
+		boolean[] changeStates = new boolean[count - 1];
+		System.arraycopy(times, 1, changeTimes, 0, count - 1);
+		System.arraycopy(states, 1, changeStates, 0, count - 1);
+		return new Timeline(times[0], times[count - 1], states[0], changeTimes, changeStates);
+	}
+	
+	
+	/**
+	 * Generates a synthetic timeline.
+	 * On most days the space opens once in the evening for a few hours, at the weekend it opens in the afternoon and stays open longer,
+	 * and now and again someone opens and closes it again within a few minutes.
+	 * 
+	 * @param start the start time, in milliseconds
+	 * @param days the number of days to generate
+	 * @param seed the seed for the random generator, the same seed always gives the same timeline.
+	 */
+	public static Timeline synthetic(long start, int days, long seed) {
+		Random random = new Random(seed);
+		long[] times = new long[days * 4];
+		boolean[] states = new boolean[days * 4];
+		int count = 0;
+		
+		for (int day = 0; day < days; day++) {
+			long midnight = start + day * DAY;
+			boolean weekend = day % 7 >= 5;
+			
+			if (random.nextDouble() < 0.1) {
+				// A blip, open for a few minutes only
+				long open = midnight + 9 * HOUR + (long)(random.nextDouble() * 8 * HOUR);
+				if (count > 0 && open <= times[count - 1])
+					open = times[count - 1] + 60000L;
+				
+				times[count] = open;
+				states[count++] = true;
+				times[count] = open + 60000L + (long)(random.nextDouble() * 5 * 60000L);
+				states[count++] = false;
+			}
+			
+			if (random.nextDouble() < (weekend ? 0.9 : 0.75)) {
+				long open = midnight + (weekend ? 13 : 18) * HOUR + (long)(random.nextGaussian() * HOUR);
+				long length = (long)((weekend ? 6 : 4) * HOUR * (0.5 + random.nextDouble()));
+				
+				if (count > 0 && open <= times[count - 1])
+					open = times[count - 1] + 60000L;
+				
+				times[count] = open;
+				states[count++] = true;
+				times[count] = open + length;
+				states[count++] = false;
+			}
+		}
+		
+		long[] changeTimes = new long[count];
+		boolean[] changeStates = new boolean[count];
+		System.arraycopy(times, 0, changeTimes, 0, count);
+		System.arraycopy(states, 0, changeStates, 0, count);
+		// The last session may run past the last day, the timeline runs until it closes
+		long end = start + days * DAY;
+		if (count > 0 && changeTimes[count - 1] > end)
+			end = changeTimes[count - 1];
+		return new Timeline(start, end, false, changeTimes, changeStates);
+	}
+	
+	
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public boolean getInitialState() {
+		return initialState;
+	}
+
+	/**
+	 * Gets the number of changes in the timeline.
+	 */
+	public int getChangeCount() {
+		return times.length;
+	}
+	
+	public long getChangeTime(int index) {
+		return times[index];
+	}
+	
+	public boolean getChangeState(int index) {
+		return states[index];
+	}
+	
+	
+	private static long[] grow(long[] array) {
+		long[] grown = new long[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+
+	private static boolean[] grow(boolean[] array) {
+		boolean[] grown = new boolean[array.length * 2];
+		System.arraycopy(array, 0, grown, 0, array.length);
+		return grown;
+	}
+}
@@ -0,0 +1,49 @@
+package org.spoofer.techinc.state;
+
+/**
+ * Polls quickly just after the state changes and backs off while it stays the same.
+ * After a change the delay drops back to the minimum, and each poll without a change multiplies it by the given factor,
+ * up to the maximum.
+ * 
+ * @author rob gilham
+ *
+ */
+public class AdaptivePollPolicy implements PollPolicy {
+
+	private final long minDelay;
+	private final long maxDelay;
+	private final double factor;
+	
+	private long delay;
+	
+	
+	/**
+	 * @param minDelay the delay, in milliseconds, following a change of state.
+	 * @param maxDelay the longest delay, in milliseconds, between polls.
+	 * @param factor the amount to increase the delay by, on each poll without a change.
+	 */
+	public AdaptivePollPolicy(long minDelay, long maxDelay, double factor) {
+		if (minDelay < 1 || maxDelay < minDelay || factor < 1.0)
+			throw new IllegalArgumentException("invalid adaptive poll policy");
+		
+		this.minDelay = minDelay;
+		this.maxDelay = maxDelay;
+		this.factor = factor;
+		this.delay = minDelay;
+	}
+	
+	@Override
+	public long getNextPollDelay(boolean state, boolean changed) {
+		if (changed)
+			delay = minDelay;
+		else
+			delay = Math.min(maxDelay, (long)(delay * factor));
+		
+		return delay;
+	}
+
+	@Override
+	public String toString() {
+		return "adaptive " + (minDelay / 1000) + "s-" + (maxDelay / 1000) + "s x" + factor;
+	}
+}
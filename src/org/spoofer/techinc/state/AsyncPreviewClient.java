@@ -0,0 +1,329 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
+
+import android.util.Log;
+
+/**
+ * The Async Preview Client makes preview requests over non blocking sockets, all sharing a single I/O thread.
+ * Each request has a deadline and may be cancelled at any time through its PreviewFuture.
+ * Only plain http URLs are supported.
+ * 
+ * Host names are resolved on the calling thread, when the request is made.  Everything after that happens on the I/O thread.
+ * 
+ * Requests in flight are kept in order of their deadline, so finding the next deadline and expiring those passed never
+ * visits the other requests.  A request's channel is closed as soon as it completes or is cancelled, and the request
+ * itself is dropped when it reaches the front.
+ * 
+ * @author rob gilham
+ *
+ */
+public class AsyncPreviewClient implements Runnable {
+
+	private static final String LOG_TAG = AsyncPreviewClient.class.getSimpleName();
+
+	private static final String IO_THREADNAME = "preview_io_thread";
+	private static final int READ_BUFFER_SIZE = 4096;
+	
+	private static final Comparator<PreviewFuture> BY_DEADLINE = new Comparator<PreviewFuture>() {
+		@Override
+		public int compare(PreviewFuture a, PreviewFuture b) {
+			long difference = a.deadline - b.deadline;	// nanoTime may wrap, so only the difference is meaningful
+			return difference < 0 ? -1 : (difference == 0 ? 0 : 1);
+		}
+	};
+	
+	private static AsyncPreviewClient defaultClient;
+	
+	
+	private final Selector selector;
+	private final Thread ioThread;
+	private final ConcurrentLinkedQueue<PreviewFuture> submitted = new ConcurrentLinkedQueue<PreviewFuture>();
+	private final ConcurrentLinkedQueue<PreviewFuture> cancelled = new ConcurrentLinkedQueue<PreviewFuture>();
+	private volatile boolean closed = false;	// Only set while holding submitted, so no request is added after the last is drained
+	
+	// I/O thread only
+	private final PriorityQueue<PreviewFuture> active = new PriorityQueue<PreviewFuture>(16, BY_DEADLINE);
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	
+	
+	/**
+	 * Gets the client shared by the application, starting it if needed.
+	 */
+	public static synchronized AsyncPreviewClient getDefault() throws IOException {
+		if (null == defaultClient || defaultClient.closed)
+			defaultClient = new AsyncPreviewClient();
+		return defaultClient;
+	}
+	
+	
+	/**
+	 * Creates a new client and starts its I/O thread.
+	 */
+	public AsyncPreviewClient() throws IOException {
+		selector = Selector.open();
+		ioThread = new Thread(this, IO_THREADNAME);
+		ioThread.setDaemon(true);
+		ioThread.start();
+	}
+
+	
+	/**
+	 * Starts reading the first lines from the given URL.  Returns without blocking on the network.
+	 * 
+	 * @param url the http URL to read
+	 * @param lineCount the number of lines to read from the body
+	 * @param timeout the time, in milliseconds, allowed for the whole request
+	 * @param callback called when the request completes, may be null.
+	 * @return the future result of the request.
+	 */
+	public PreviewFuture getPreview(URL url, int lineCount, long timeout, PreviewCallback callback) {
+		return request(url, lineCount, false, timeout, callback);
+	}
+	
+	/**
+	 * Starts reading the whole body from the given URL, up to PreviewFuture.MAX_RESPONSE_BYTES, with each line ending in
+	 * a line feed.  Returns without blocking on the network.
+	 * 
+	 * @param url the http URL to read
+	 * @param timeout the time, in milliseconds, allowed for the whole request
+	 * @param callback called when the request completes, may be null.
+	 * @return the future body.
+	 */
+	public PreviewFuture getBody(URL url, long timeout, PreviewCallback callback) {
+		return request(url, Integer.MAX_VALUE, true, timeout, callback);
+	}
+	
+	private PreviewFuture request(URL url, int lineCount, boolean keepLineEnds, long timeout, PreviewCallback callback) {
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		
+		InetSocketAddress address = null;
+		if ("http".equalsIgnoreCase(url.getProtocol()))
+			address = new InetSocketAddress(url.getHost(), url.getPort() < 0 ? url.getDefaultPort() : url.getPort());
+
+		PreviewFuture future = new PreviewFuture(this, url, address, lineCount, keepLineEnds, deadline, callback);
+		
+		if (null == address)
+			future.fail(new IOException("asynchronous preview only supports http, not " + url));
+		else if (address.isUnresolved())
+			future.fail(new UnknownHostException(url.getHost()));
+		else if (!submit(future))
+			future.fail(new IOException("preview client is closed"));
+		else
+			selector.wakeup();
+		return future;
+	}
+	
+	
+	/**
+	 * Stops the I/O thread.  Requests still in flight fail.
+	 */
+	public void close() {
+		synchronized (submitted) {
+			closed = true;
+		}
+		selector.wakeup();
+	}
+	
+	/**
+	 * Queues the request for the I/O thread, unless the client is closed.
+	 * @return false if the client is closed.
+	 */
+	private boolean submit(PreviewFuture future) {
+		synchronized (submitted) {
+			if (closed)
+				return false;
+			submitted.add(future);
+			return true;
+		}
+	}
+
+	/**
+	 * Called when a request is cancelled, from any thread, so the I/O thread closes its channel.
+	 */
+	void cancelled(PreviewFuture future) {
+		cancelled.add(future);
+		selector.wakeup();
+	}
+	
+	
+	@Override
+	public void run() {
+		while (!closed) {
+			try {
+				selector.select(nextWait());
+				
+				register();
+				closeCancelled();
+				
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					service(key);
+				}
+				
+				expire();
+				
+			} catch (IOException e) {
+				Log.e(LOG_TAG, "preview selector failed", e);
+			} catch (RuntimeException e) {
+				Log.e(LOG_TAG, "preview request failed", e);
+			}
+		}
+		
+		IOException closing = new IOException("preview client is closed");
+		for (PreviewFuture future : active) {
+			future.fail(closing);
+			close(future);
+		}
+		active.clear();
+		cancelled.clear();
+		
+		// Closed while holding submitted, so nothing more can be queued
+		List<PreviewFuture> unstarted = new ArrayList<PreviewFuture>();
+		synchronized (submitted) {
+			PreviewFuture future;
+			while (null != (future = submitted.poll()))
+				unstarted.add(future);
+		}
+		for (PreviewFuture future : unstarted)
+			future.fail(closing);
+		
+		try {
+			selector.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+	}
+	
+	
+	/**
+	 * Opens a channel for each newly submitted request.
+	 */
+	private void register() {
+		PreviewFuture future;
+		while (null != (future = submitted.poll())) {
+			if (future.isDone())
+				continue;
+			
+			try {
+				Trace.event(TraceEvent.CONNECT);
+				SocketChannel channel = SocketChannel.open();
+				future.channel = channel;
+				channel.configureBlocking(false);
+				
+				boolean connected = channel.connect(future.address);
+				channel.register(selector, connected ? SelectionKey.OP_WRITE : SelectionKey.OP_CONNECT, future);
+				active.add(future);
+				
+			} catch (IOException e) {
+				future.fail(e);
+				close(future);
+			}
+		}
+	}
+	
+	private void service(SelectionKey key) {
+		PreviewFuture future = (PreviewFuture)key.attachment();
+		if (future.isDone())
+			return;	// closed by expire
+		
+		try {
+			if (key.isConnectable()) {
+				if (future.channel.finishConnect())
+					key.interestOps(SelectionKey.OP_WRITE);
+				
+			} else if (key.isWritable()) {
+				future.channel.write(future.request);
+				if (!future.request.hasRemaining())
+					key.interestOps(SelectionKey.OP_READ);
+				
+			} else if (key.isReadable()) {
+				readBuffer.clear();
+				int read = future.channel.read(readBuffer);
+				
+				if (read < 0) {
+					future.endOfStream();
+				} else {
+					readBuffer.flip();
+					future.consume(readBuffer);
+				}
+				
+				if (future.isDone())
+					Trace.event(TraceEvent.RESPONSE, read);
+			}
+		} catch (IOException e) {
+			future.fail(e);
+		}
+		
+		if (future.isDone())
+			close(future);
+	}
+	
+	/**
+	 * Closes the channels of requests cancelled since the last look.
+	 */
+	private void closeCancelled() {
+		PreviewFuture future;
+		while (null != (future = cancelled.poll()))
+			close(future);
+	}
+	
+	/**
+	 * Drops completed requests from the front of the deadlines, and fails requests past their deadline.
+	 * Stops at the first request still in flight, as every request behind it has a later deadline.
+	 */
+	private void expire() {
+		long now = System.nanoTime();
+		
+		PreviewFuture future;
+		while (null != (future = active.peek())) {
+			if (!future.isDone()) {
+				if (now - future.deadline < 0)
+					break;
+				future.fail(new SocketTimeoutException("preview of " + future.url + " passed its deadline"));
+			}
+			active.poll();
+			close(future);
+		}
+	}
+	
+	/**
+	 * @return the time, in milliseconds, until the nearest deadline, or zero if there are no requests in flight.
+	 */
+	private long nextWait() {
+		PreviewFuture nearest = active.peek();
+		if (null == nearest)
+			return 0;
+		
+		return Math.max(1, (nearest.deadline - System.nanoTime()) / 1000000L + 1);
+	}
+	
+	private void close(PreviewFuture future) {
+		if (null == future.channel || !future.channel.isOpen())
+			return;
+		try {
+			future.channel.close();
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "failed to close channel to " + future.url, e);
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a request, such as an http fallback, is refused by the RequestBudget part way through a poll.
+ * 
+ * @author rob gilham
+ *
+ */
+public class BudgetExhaustedException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final long wait;
+	
+	/**
+	 * @param wait the number of milliseconds until a request is allowed.
+	 */
+	public BudgetExhaustedException(long wait) {
+		super("request budget exhausted, next request allowed in " + (wait / 1000) + "s");
+		this.wait = wait;
+	}
+	
+	/**
+	 * @return the number of milliseconds until a request is allowed.
+	 */
+	public long getWait() {
+		return wait;
+	}
+}
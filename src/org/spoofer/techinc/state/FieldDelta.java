@@ -0,0 +1,55 @@
+package org.spoofer.techinc.state;
+
+/**
+ * A Field Delta is a notable change to a subscribed field between two status snapshots.
+ *
+ * @author rob gilham
+ *
+ */
+public class FieldDelta {
+
+	private final FieldSubscription subscription;
+	private final Object previous;
+	private final Object current;
+
+
+	public FieldDelta(FieldSubscription subscription, Object previous, Object current) {
+		this.subscription = subscription;
+		this.previous = previous;
+		this.current = current;
+	}
+
+
+	public FieldSubscription getSubscription() {
+		return subscription;
+	}
+
+	/**
+	 * @return the value in the earlier snapshot, a String, Double or Boolean, or null if it was missing.
+	 */
+	public Object getPrevious() {
+		return previous;
+	}
+
+	/**
+	 * @return the value now, a String, Double or Boolean, or null if it is missing.
+	 */
+	public Object getCurrent() {
+		return current;
+	}
+
+	@Override
+	public String toString() {
+		return subscription.getPath() + " " + format(previous) + " -> " + format(current);
+	}
+
+
+	private static String format(Object value) {
+		if (value instanceof Double) {
+			double number = ((Double)value).doubleValue();
+			if (number == Math.rint(number) && Math.abs(number) < 1e15)
+				return Long.toString((long)number);
+		}
+		return String.valueOf(value);
+	}
+}
@@ -0,0 +1,119 @@
+package org.spoofer.techinc.state;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Field Subscription picks one field out of a rich status document, such as the SpaceAPI JSON many spaces publish,
+ * by its path: the object keys and array indexes leading to it, joined with dots.
+ * For example 'sensors.people_now_present.0.value' or 'state.message'.
+ *
+ * Without a threshold any change to the field is notable.  With a threshold only a change which takes a number
+ * from below the threshold to at or above it, or back again, is notable.
+ *
+ * Subscriptions are written as a comma separated list, each either 'path' or 'path>=threshold'.
+ *
+ * @author rob gilham
+ *
+ */
+public class FieldSubscription {
+
+	private static final String THRESHOLD_SEPARATOR = ">=";
+	private static final String LIST_SEPARATOR = ",";
+
+
+	private final String path;
+	private final byte[] pathBytes;
+	private final double threshold;	// NaN for any change
+
+
+	public FieldSubscription(String path) {
+		this(path, Double.NaN);
+	}
+
+	/**
+	 * @param path the dotted path of the field.
+	 * @param threshold the value whose crossing is notable, or NaN if any change is notable.
+	 */
+	public FieldSubscription(String path, double threshold) {
+		if (null == path || path.trim().length() == 0)
+			throw new IllegalArgumentException("Field path can not be empty");
+
+		this.path = path.trim();
+		this.threshold = threshold;
+		try {
+			this.pathBytes = this.path.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	/**
+	 * Parses a comma separated list of subscriptions, each 'path' or 'path>=threshold'.
+	 *
+	 * @param subscriptions the list, which may be empty.
+	 * @return the subscriptions, in the order listed.
+	 * @throws IllegalArgumentException if a path is empty or a threshold is not a number.
+	 */
+	public static List<FieldSubscription> parseList(String subscriptions) throws IllegalArgumentException {
+		List<FieldSubscription> parsed = new ArrayList<FieldSubscription>();
+		if (null == subscriptions)
+			return parsed;
+
+		for (String subscription : subscriptions.split(LIST_SEPARATOR)) {
+			if (subscription.trim().length() == 0)
+				continue;
+
+			int split = subscription.indexOf(THRESHOLD_SEPARATOR);
+			if (split < 0) {
+				parsed.add(new FieldSubscription(subscription));
+				continue;
+			}
+
+			String threshold = subscription.substring(split + THRESHOLD_SEPARATOR.length()).trim();
+			try {
+				parsed.add(new FieldSubscription(subscription.substring(0, split), Double.parseDouble(threshold)));
+			} catch (NumberFormatException e) {
+				throw new IllegalArgumentException("Invalid threshold " + threshold + " for " + subscription);
+			}
+		}
+		return parsed;
+	}
+
+
+	/**
+	 * Checks if a change to the field is notable.
+	 *
+	 * @param previous the field's value in the last snapshot, or null if it was missing.
+	 * @param current the field's value now, or null if it is missing.
+	 * @return true if the change should be notified.
+	 */
+	public boolean isNotable(Object previous, Object current) {
+		if (Double.isNaN(threshold))
+			return null == previous ? null != current : !previous.equals(current);
+
+		if (!(previous instanceof Number) || !(current instanceof Number))
+			return false;
+
+		return (((Number)previous).doubleValue() >= threshold) != (((Number)current).doubleValue() >= threshold);
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public double getThreshold() {
+		return threshold;
+	}
+
+	byte[] getPathBytes() {
+		return pathBytes;
+	}
+
+	@Override
+	public String toString() {
+		return Double.isNaN(threshold) ? path : path + THRESHOLD_SEPARATOR + threshold;
+	}
+}
@@ -0,0 +1,33 @@
+package org.spoofer.techinc.state;
+
+/**
+ * Polls at a fixed interval, whatever the state.
+ * This is the PollSimulator's fixed interval baseline, which other policies are compared against.  The engine itself
+ * follows the server's directives, falling back to the interval from the preferences.
+ * 
+ * @author rob gilham
+ *
+ */
+public class FixedPollPolicy implements PollPolicy {
+
+	private final long delay;
+	
+	/**
+	 * @param delay the time between polls, in milliseconds.
+	 */
+	public FixedPollPolicy(long delay) {
+		if (delay < 1)
+			throw new IllegalArgumentException("poll delay must be at least one millisecond");
+		this.delay = delay;
+	}
+	
+	@Override
+	public long getNextPollDelay(boolean state, boolean changed) {
+		return delay;
+	}
+
+	@Override
+	public String toString() {
+		return "fixed " + (delay / 1000) + "s";
+	}
+}
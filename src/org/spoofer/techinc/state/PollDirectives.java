@@ -0,0 +1,213 @@
+package org.spoofer.techinc.state;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Poll Directives works out when the server would like to be polled next, from the headers of its response.
+ * 
+ * In order of precedence:
+ * 	Retry-After, as seconds or an http date, such as when the server is down for maintenance.
+ * 	X-Next-Poll, seconds until the state is worth checking again, for servers that know their own schedule.
+ * 	Cache-Control max-age, less any Age, unless no-cache or no-store is given.
+ * 	Expires, measured against the server's Date header where there is one.
+ * 
+ * The first two are directives, which may ask for polls sooner than the user's poll delay.  The last two only say how
+ * long the state stays fresh, and a dynamic page commonly marks itself as already expired, so a freshness of zero,
+ * or an Expires already passed or invalid, is no suggestion at all.
+ * 
+ * Headers are read in place, and dates are only parsed when a Retry-After or Expires needs them, with formats
+ * kept for each thread, so the common steady poll, with a Date and a Cache-Control but neither of those, allocates nothing.
+ * 
+ * @author rob gilham
+ *
+ */
+public final class PollDirectives {
+
+	public static final String HEADER_RETRY_AFTER = "Retry-After";
+	public static final String HEADER_NEXT_POLL = "X-Next-Poll";
+	public static final String HEADER_CACHE_CONTROL = "Cache-Control";
+	public static final String HEADER_AGE = "Age";
+	public static final String HEADER_EXPIRES = "Expires";
+	public static final String HEADER_DATE = "Date";
+	
+	private static final String[] DATE_FORMATS = new String[]{
+		"EEE, dd MMM yyyy HH:mm:ss zzz",	// RFC 1123
+		"EEEE, dd-MMM-yy HH:mm:ss zzz",		// RFC 850
+		"EEE MMM d HH:mm:ss yyyy"			// asctime
+	};
+	
+	private static final String NO_CACHE = "no-cache";
+	private static final String NO_STORE = "no-store";
+	private static final String MAX_AGE = "max-age=";
+	
+	private static final ThreadLocal<SimpleDateFormat[]> dateFormats = new ThreadLocal<SimpleDateFormat[]>() {
+		@Override
+		protected SimpleDateFormat[] initialValue() {
+			SimpleDateFormat[] formats = new SimpleDateFormat[DATE_FORMATS.length];
+			for (int i = 0; i < formats.length; i++) {
+				formats[i] = new SimpleDateFormat(DATE_FORMATS[i], Locale.US);
+				formats[i].setTimeZone(TimeZone.getTimeZone("GMT"));
+			}
+			return formats;
+		}
+	};
+	
+	
+	private PollDirectives() {
+	}
+	
+	
+	/**
+	 * Works out the server's suggested delay until the next poll, from its directives or else the freshness of the state.
+	 * Each header value may be null if it was not in the response.
+	 * 
+	 * @param now the current time in milliseconds, used when the server sent no Date.
+	 * @return the suggested delay in milliseconds, or -1 if the server made no suggestion.
+	 */
+	public static long getSuggestedDelay(String retryAfter, String nextPoll, String cacheControl, String age,
+			String expires, String date, long now) {
+		
+		long directed = getDirectedDelay(retryAfter, nextPoll, date, now);
+		return directed >= 0 ? directed : getFreshDelay(cacheControl, age, expires, date, now);
+	}
+	
+	/**
+	 * Works out the delay until the next poll the server directs, from Retry-After or X-Next-Poll.
+	 * 
+	 * @param now the current time in milliseconds, used when the server sent no Date.
+	 * @return the directed delay in milliseconds, or -1 if the server gave no directive.
+	 */
+	public static long getDirectedDelay(String retryAfter, String nextPoll, String date, long now) {
+		if (null != retryAfter) {
+			long seconds = parseSeconds(retryAfter);
+			if (seconds >= 0)
+				return seconds * 1000;
+			
+			long at = parseDate(retryAfter, -1);
+			if (at >= 0)
+				return Math.max(0, at - parseDate(date, now));
+		}
+		
+		if (null != nextPoll) {
+			long seconds = parseSeconds(nextPoll);
+			if (seconds >= 0)
+				return seconds * 1000;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Works out how long the state stays fresh, from Cache-Control max-age or Expires.
+	 * 
+	 * @param now the current time in milliseconds, used when the server sent no Date.
+	 * @return the time in milliseconds until the state expires, or -1 if it is not cacheable or has already expired.
+	 */
+	public static long getFreshDelay(String cacheControl, String age, String expires, String date, long now) {
+		if (null != cacheControl) {
+			long maxAge = -1;
+			int start = 0;
+			while (start < cacheControl.length()) {
+				int end = cacheControl.indexOf(',', start);
+				if (end < 0)
+					end = cacheControl.length();
+				
+				// Each directive is matched in place, trimmed and ignoring case
+				int from = start;
+				int to = end;
+				while (from < to && cacheControl.charAt(from) <= ' ')
+					from++;
+				while (to > from && cacheControl.charAt(to - 1) <= ' ')
+					to--;
+				
+				if (isDirective(cacheControl, from, to, NO_CACHE) || isDirective(cacheControl, from, to, NO_STORE))
+					return -1;
+				
+				if (cacheControl.regionMatches(true, from, MAX_AGE, 0, MAX_AGE.length()))
+					maxAge = parseSeconds(cacheControl, from + MAX_AGE.length(), to);
+				
+				start = end + 1;
+			}
+			if (maxAge >= 0)
+				return fresh((maxAge - Math.max(0, parseSeconds(age))) * 1000);
+		}
+		
+		if (null != expires) {
+			long at = parseDate(expires, -1);
+			if (at >= 0)
+				return fresh(at - parseDate(date, now));
+		}
+		
+		return -1;
+	}
+	
+	
+	/**
+	 * Clamps the server's suggested delay between the given bounds.
+	 */
+	public static long clamp(long delay, long minDelay, long maxDelay) {
+		return Math.max(minDelay, Math.min(maxDelay, delay));
+	}
+	
+	
+	private static long fresh(long delay) {
+		return delay > 0 ? delay : -1;
+	}
+	
+	private static boolean isDirective(String value, int from, int to, String directive) {
+		return to - from == directive.length() && value.regionMatches(true, from, directive, 0, directive.length());
+	}
+	
+	private static long parseSeconds(String value) {
+		return null == value ? -1 : parseSeconds(value, 0, value.length());
+	}
+	
+	/**
+	 * Parses the seconds between from and to, ignoring white space around them.
+	 * @return the seconds, or -1 if they are not all digits.
+	 */
+	private static long parseSeconds(String value, int from, int to) {
+		while (from < to && value.charAt(from) <= ' ')
+			from++;
+		while (to > from && value.charAt(to - 1) <= ' ')
+			to--;
+		if (from == to)
+			return -1;
+		
+		long seconds = 0;
+		boolean overflow = false;
+		for (int i = from; i < to; i++) {
+			int digit = Character.digit(value.charAt(i), 10);
+			if (digit < 0)
+				return -1;
+			if (seconds > (Long.MAX_VALUE - digit) / 10)
+				overflow = true;
+			else
+				seconds = seconds * 10 + digit;
+		}
+		return overflow ? Integer.MAX_VALUE : seconds;	// More digits than a long, a very long time
+	}
+	
+	private static long parseDate(String value, long defaultValue) {
+		if (null == value)
+			return defaultValue;
+		
+		value = value.trim();
+		if (0 == value.length() || !Character.isLetter(value.charAt(0)))
+			return defaultValue;	// Every format starts with the day, so this is not a date, such as an Expires of 0
+		
+		ParsePosition position = new ParsePosition(0);
+		for (SimpleDateFormat format : dateFormats.get()) {
+			position.setIndex(0);
+			position.setErrorIndex(-1);
+			Date date = format.parse(value, position);
+			if (null != date)
+				return date.getTime();
+		}
+		return defaultValue;
+	}
+}
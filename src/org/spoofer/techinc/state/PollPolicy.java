@@ -0,0 +1,20 @@
+package org.spoofer.techinc.state;
+
+/**
+ * A Poll Policy decides how long to wait before polling the state again.
+ * 
+ * @author rob gilham
+ *
+ */
+public interface PollPolicy {
+
+	/**
+	 * Gets the delay until the next poll, following a successful poll.
+	 * 
+	 * @param state the state just read, true is open.
+	 * @param changed true if the notified state changed as a result of the poll.
+	 * @return the number of milliseconds to wait before polling again.
+	 */
+	long getNextPollDelay(boolean state, boolean changed);
+	
+}
@@ -0,0 +1,24 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+
+/**
+ * Receives the outcome of an asynchronous preview.
+ * Callbacks are made on the I/O thread shared by every request, so they must return quickly and never block.
+ * Neither is called if the preview is cancelled.
+ * 
+ * @author rob gilham
+ *
+ */
+public interface PreviewCallback {
+
+	/**
+	 * Called with the preview, the requested lines joined together in the same way as PreviewReader.getPreview.
+	 */
+	void onPreview(String preview);
+	
+	/**
+	 * Called when the preview failed, including when its deadline passed (as a SocketTimeoutException).
+	 */
+	void onFailure(IOException e);
+}
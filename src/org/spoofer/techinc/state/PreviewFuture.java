@@ -0,0 +1,237 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.util.Log;
+
+/**
+ * A Preview Future is a single asynchronous preview request, made by the AsyncPreviewClient.
+ * It holds the state of the request while it is in flight and the preview, or failure, once complete.
+ * 
+ * The response is parsed as it arrives: the status line is checked, the headers skipped, and the first 'lineCount' lines of
+ * the body collected.  No more than MAX_RESPONSE_BYTES are ever read.
+ * 
+ * @author rob gilham
+ *
+ */
+public class PreviewFuture implements Future<String> {
+
+	private static final String LOG_TAG = PreviewFuture.class.getSimpleName();
+
+	public static final int MAX_RESPONSE_BYTES = 16 * 1024;  // Headers and body
+	private static final int MAX_LINE_LENGTH = 4 * 1024;
+	
+	private static final int PHASE_STATUS = 0;
+	private static final int PHASE_HEADERS = 1;
+	private static final int PHASE_BODY = 2;
+	
+	
+	private final AsyncPreviewClient client;
+	final URL url;
+	final InetSocketAddress address;
+	final long deadline;	// System.nanoTime() of the deadline
+	private final int lineCount;
+	private final boolean keepLineEnds;	// true to end each line of the preview with a line feed, rather than join them
+	private final PreviewCallback callback;
+	
+	// I/O thread only
+	SocketChannel channel;
+	final ByteBuffer request;
+	private int phase = PHASE_STATUS;
+	private byte[] line = new byte[128];
+	private int lineLength = 0;
+	private int bytesRead = 0;
+	private int linesRead = 0;
+	private final StringBuilder preview = new StringBuilder();
+	
+	private final AtomicBoolean completed = new AtomicBoolean(false);
+	private final CountDownLatch done = new CountDownLatch(1);
+	private volatile boolean cancelled = false;
+	private String result;
+	private Throwable failure;
+	
+	
+	PreviewFuture(AsyncPreviewClient client, URL url, InetSocketAddress address, int lineCount, boolean keepLineEnds,
+			long deadline, PreviewCallback callback) {
+		this.client = client;
+		this.url = url;
+		this.address = address;
+		this.lineCount = lineCount;
+		this.keepLineEnds = keepLineEnds;
+		this.deadline = deadline;
+		this.callback = callback;
+		
+		String path = url.getFile();
+		String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+		String get = "GET " + (path.length() > 0 ? path : "/") + " HTTP/1.0\r\n"
+				+ "Host: " + host + "\r\n"
+				+ "Connection: close\r\n\r\n";
+		try {
+			request = ByteBuffer.wrap(get.getBytes("US-ASCII"));
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	
+	
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!completed.compareAndSet(false, true))
+			return false;
+		
+		cancelled = true;
+		done.countDown();
+		client.cancelled(this);
+		return true;
+	}
+
+	@Override
+	public boolean isCancelled() {
+		return cancelled;
+	}
+
+	@Override
+	public boolean isDone() {
+		return completed.get();
+	}
+
+	@Override
+	public String get() throws InterruptedException, ExecutionException {
+		done.await();
+		return getResult();
+	}
+
+	@Override
+	public String get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+		if (!done.await(timeout, unit))
+			throw new TimeoutException("preview of " + url + " not complete");
+		return getResult();
+	}
+	
+	private String getResult() throws ExecutionException {
+		if (cancelled)
+			throw new CancellationException("preview of " + url + " was cancelled");
+		if (null != failure)
+			throw new ExecutionException(failure);
+		return result;
+	}
+	
+	
+	
+	/**
+	 * Consumes the bytes read from the channel.
+	 * 
+	 * @return true once enough lines have been read, and the request is complete.
+	 * @throws IOException if the response is invalid or too large.
+	 */
+	boolean consume(ByteBuffer data) throws IOException {
+		bytesRead += data.remaining();
+		if (bytesRead > MAX_RESPONSE_BYTES)
+			throw new IOException("response from " + url + " is larger than " + MAX_RESPONSE_BYTES + " bytes");
+		
+		while (data.hasRemaining()) {
+			byte b = data.get();
+			
+			if (b != '\n') {
+				if (lineLength == line.length) {
+					if (lineLength >= MAX_LINE_LENGTH)
+						throw new IOException("line in response from " + url + " is too long");
+					byte[] grown = new byte[line.length * 2];
+					System.arraycopy(line, 0, grown, 0, lineLength);
+					line = grown;
+				}
+				line[lineLength++] = b;
+				continue;
+			}
+			
+			int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+			lineLength = 0;
+			
+			if (lineComplete(length))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Called when the server closes the connection.
+	 * If the body has been reached, whatever lines have been read are the preview, otherwise the request fails.
+	 */
+	void endOfStream() throws IOException {
+		if (phase == PHASE_BODY) {
+			if (lineLength > 0)
+				lineComplete(lineLength);
+			complete(preview.toString(), null);
+		} else {
+			complete(null, new IOException("connection to " + url + " closed before the response"));
+		}
+	}
+	
+	void fail(IOException e) {
+		complete(null, e);
+	}
+	
+	
+	private boolean lineComplete(int length) throws IOException {
+		switch (phase) {
+		case PHASE_STATUS:
+			String status = new String(line, 0, length, "US-ASCII");
+			String[] fields = status.split(" ", 3);
+			if (fields.length < 2 || !fields[0].startsWith("HTTP/") || !fields[1].startsWith("2"))
+				throw new IOException("request to " + url + " failed: " + status);
+			phase = PHASE_HEADERS;
+			return false;
+			
+		case PHASE_HEADERS:
+			if (length == 0)
+				phase = PHASE_BODY;
+			return false;
+			
+		default:
+			preview.append(new String(line, 0, length, "UTF-8"));
+			if (keepLineEnds)
+				preview.append('\n');
+			if (++linesRead < lineCount)
+				return false;
+			
+			complete(preview.toString(), null);
+			return true;
+		}
+	}
+	
+	
+	private void complete(String result, Throwable failure) {
+		if (!completed.compareAndSet(false, true))
+			return;
+		
+		this.result = result;
+		this.failure = failure;
+		done.countDown();
+		
+		if (null == callback)
+			return;
+		
+		// The callback runs on the I/O thread shared by every request, which must survive whatever it throws
+		try {
+			if (null != failure)
+				callback.onFailure((IOException)failure);
+			else
+				callback.onPreview(result);
+		} catch (Throwable e) {
+			Log.e(LOG_TAG, "preview callback for " + url + " failed", e);
+		}
+	}
+}
@@ -1,12 +1,17 @@
 package org.spoofer.techinc.state;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLConnection;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
 
 import android.util.Log;
 
@@ -14,6 +19,10 @@ import android.util.Log;
  * The Preview Reader will retrieve the first 'n' amount of lines from a URL request stream.
  * The input stream of the given URL is opened and lines of characters are read into a buffer.
  * 
+ * The buffer belongs to the reader and is reused by every request, so a reader kept between polls
+ * reads without allocating anything beyond what the connection itself needs.
+ * A reader must not be shared between threads.
+ * 
  * 
  * @author rob gilham
  *
@@ -22,8 +31,21 @@ public class PreviewReader {
 	
 	private static final String LOG_TAG = PreviewReader.class.getSimpleName();
 	
+	private static final int INITIAL_BUFFER_SIZE = 256;
+	private static final int MAX_PREVIEW_SIZE = 16 * 1024;	// Longest preview read, matching the asynchronous previews
+	
 	private final URL url;
 	
+	private int timeout = 0;  // Connect and read timeout in milliseconds, zero waits forever
+	
+	private TlsSessionContext tlsContext = null;  // null uses the default, shared, context
+	
+	private long suggestedPollDelay = -1;  // Server's suggested delay until the next poll, from the last response
+	private boolean pollDelayDirected = false;	// true if the suggestion is a directive, rather than a freshness
+	
+	private byte[] buffer = new byte[INITIAL_BUFFER_SIZE];  // Lines of the last preview, without their line terminators
+	private int length = 0;
+	
 	
 	
 	public PreviewReader(String url) throws MalformedURLException {
@@ -40,31 +62,223 @@ public class PreviewReader {
 	
 
 	public String getPreview(int lineCount) throws IOException {
-				
+		int read = readPreview(lineCount);
+		return new String(buffer, 0, read);
+	}
+	
+	/**
+	 * Reads the first 'n' lines from the URL into the reader's buffer, joined without their line terminators.
+	 * The buffer is valid until the next preview is read.
+	 * 
+	 * @param lineCount the number of lines to read.
+	 * @return the number of bytes read into the buffer.
+	 * @throws IOException if the preview can not be read, or is longer than 16KB.
+	 */
+	protected int readPreview(int lineCount) throws IOException {
+		InputStream in = openStream();
+		try {
+			return readLines(in, lineCount);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Connects to the URL, reads the poll directives from the response headers and opens the response body.
+	 * 
+	 * @return the body of the response, which the caller must close.
+	 * @throws IOException if the connection fails.
+	 */
+	protected InputStream openStream() throws IOException {
+		// A failed connection has no directives, so none can be left over from the last response
+		suggestedPollDelay = -1;
+		pollDelayDirected = false;
+		
 		URLConnection connect = url.openConnection();
 		connect.setDoInput(true);
 		connect.setUseCaches(false);
+		connect.setConnectTimeout(timeout);
+		connect.setReadTimeout(timeout);
+		
+		if (connect instanceof HttpsURLConnection)
+			((HttpsURLConnection)connect).setSSLSocketFactory(getTlsContext().getSocketFactory());
 
-		Log.v(LOG_TAG, "Opening connection to " + url.toExternalForm());
+		if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+			Log.v(LOG_TAG, "Opening connection to " + url.toExternalForm());
 
+		Trace.event(TraceEvent.CONNECT);
 		connect.connect();
 		
-		Log.v(LOG_TAG, "connection open, reading first line response.");
+		String date = connect.getHeaderField(PollDirectives.HEADER_DATE);
+		long now = System.currentTimeMillis();
+		suggestedPollDelay = PollDirectives.getDirectedDelay(
+				connect.getHeaderField(PollDirectives.HEADER_RETRY_AFTER),
+				connect.getHeaderField(PollDirectives.HEADER_NEXT_POLL),
+				date, now);
+		pollDelayDirected = suggestedPollDelay >= 0;
+		if (!pollDelayDirected) {
+			suggestedPollDelay = PollDirectives.getFreshDelay(
+					connect.getHeaderField(PollDirectives.HEADER_CACHE_CONTROL),
+					connect.getHeaderField(PollDirectives.HEADER_AGE),
+					connect.getHeaderField(PollDirectives.HEADER_EXPIRES),
+					date, now);
+		}
 
-		BufferedReader in = new BufferedReader(new InputStreamReader(connect.getInputStream()));
-		StringBuilder buffer = new StringBuilder();
-		
-		for (int i=0; i < lineCount; i++) {
+		return connect.getInputStream();
+	}
+	
+	/**
+	 * Reads the first 'n' lines of the given stream into the reader's buffer, joined without their line terminators.
+	 * Lines end with a line feed, a carriage return or both.  Reading stops at the end of the stream if it has fewer lines.
+	 * 
+	 * @param in the stream to read, which is left open.
+	 * @param lineCount the number of lines to read.
+	 * @return the number of bytes read into the buffer.
+	 * @throws IOException if the stream can not be read, or the lines are longer than 16KB.
+	 */
+	protected int readLines(InputStream in, int lineCount) throws IOException {
+		return readLines(in, lineCount, 0);
+	}
+	
+	/**
+	 * Reads the first 'n' lines, as readLines, when the start of the stream has already been read into the reader's buffer.
+	 * 
+	 * @param in the rest of the stream to read, which is left open.
+	 * @param lineCount the number of lines to read.
+	 * @param buffered the number of bytes at the start of the buffer already read from the stream.
+	 * @return the number of bytes read into the buffer.
+	 * @throws IOException if the stream can not be read, or the lines are longer than 16KB.
+	 */
+	protected int readLines(InputStream in, int lineCount, int buffered) throws IOException {
+		length = 0;
+		int lines = 0;
+		boolean skipLineFeed = false;	// A carriage return ended the last line, so skip a line feed straight after it
 		
-			String input = in.readLine();
-			Log.v(LOG_TAG, "read line " + (i + 1) + ": " + input);
-			buffer.append(input);
+		while (lines < lineCount) {
+			int read;
+			if (buffered > 0) {
+				read = buffered;
+				buffered = 0;
+				
+			} else {
+				if (length == buffer.length) {
+					if (buffer.length >= MAX_PREVIEW_SIZE)
+						throw new IOException("Preview longer than " + MAX_PREVIEW_SIZE + " bytes");
+				
+					byte[] larger = new byte[Math.min(MAX_PREVIEW_SIZE, buffer.length * 2)];
+					System.arraycopy(buffer, 0, larger, 0, length);
+					buffer = larger;
+				}
+				
+				read = in.read(buffer, length, buffer.length - length);
+				if (read < 0)
+					break;
+			}
+			
+			// Drop the line terminators in place, the kept bytes never overtake those still to be looked at
+			int end = length + read;
+			for (int i = length; i < end && lines < lineCount; i++) {
+				byte b = buffer[i];
+				if (skipLineFeed) {
+					skipLineFeed = false;
+					if ('\n' == b)
+						continue;
+				}
+				
+				if ('\r' == b || '\n' == b) {
+					lines++;
+					skipLineFeed = '\r' == b;
+				} else {
+					buffer[length++] = b;
+				}
+			}
 		}
 		
-		Log.v(LOG_TAG, "Closing connection.");
-		in.close();
+		Trace.event(TraceEvent.RESPONSE, length);
+		if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+			Log.v(LOG_TAG, "read " + lines + " lines: " + new String(buffer, 0, length));
+		
+		return length;
+	}
+	
+	/**
+	 * Gets the buffer holding the last preview read by readPreview, which is only valid until the next is read.
+	 */
+	protected byte[] getBuffer() {
+		return buffer;
+	}
+	
+	/**
+	 * Starts reading the first 'n' lines from the URL, without blocking.
+	 * The request is made on the I/O thread shared by all asynchronous previews, so many may be in flight at once.
+	 * Only http URLs are supported.
+	 * 
+	 * @param lineCount the number of lines to read.
+	 * @param timeout the time, in milliseconds, allowed for the whole request.
+	 * @param callback called with the preview or the failure, may be null.
+	 * @return the future preview, which may be cancelled.
+	 * @throws IOException if the I/O thread can not be started.
+	 */
+	public PreviewFuture getPreviewAsync(int lineCount, long timeout, PreviewCallback callback) throws IOException {
+		return AsyncPreviewClient.getDefault().getPreview(url, lineCount, timeout, callback);
+	}
+	
+	/**
+	 * Gets the delay until the next poll suggested by the headers of the last response,
+	 * from Retry-After, X-Next-Poll, Cache-Control or Expires.
+	 * 
+	 * @return the suggested delay in milliseconds, or -1 if there was no suggestion.
+	 */
+	public long getSuggestedPollDelay() {
+		return suggestedPollDelay;
+	}
+	
+	/**
+	 * @return true if the last suggestion came from Retry-After or X-Next-Poll, false if from Cache-Control or Expires.
+	 */
+	public boolean isPollDelayDirected() {
+		return pollDelayDirected;
+	}
+	
+	/**
+	 * Sets the TLS context used for https URLs, whose session cache lets polls resume earlier sessions.
+	 * 
+	 * @param tlsContext the context to use, or null to use the default context shared by all readers.
+	 */
+	public void setTlsContext(TlsSessionContext tlsContext) {
+		this.tlsContext = tlsContext;
+	}
+	
+	private TlsSessionContext getTlsContext() throws IOException {
+		if (null != tlsContext)
+			return tlsContext;
+		
+		try {
+			return TlsSessionContext.getDefault();
+		} catch (GeneralSecurityException e) {
+			IOException failure = new IOException("Failed to create TLS context: " + e.getMessage());
+			failure.initCause(e);
+			throw failure;
+		}
+	}
+	
+	/**
+	 * Gets the time, in milliseconds, to wait for the connection to open and for each read.
+	 * Zero, the default, waits forever.
+	 */
+	public int getTimeout() {
+		return timeout;
+	}
 
-		return buffer.toString();
+	/**
+	 * Sets the time, in milliseconds, to wait for the connection to open and for each read.
+	 * 
+	 * @param timeout the timeout in milliseconds, or zero to wait forever.
+	 */
+	public void setTimeout(int timeout) {
+		if (timeout < 0)
+			throw new IllegalArgumentException("timeout can not be negative");
+		this.timeout = timeout;
 	}
 	
 	public String getURL() {
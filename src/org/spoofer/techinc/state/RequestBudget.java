@@ -0,0 +1,92 @@
+package org.spoofer.techinc.state;
+
+import org.spoofer.techinc.Preferences;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.util.Log;
+
+/**
+ * The Request Budget limits how often the state server is asked for the state, however the poll was started:
+ * by the schedule, the Start button, at boot or by a refresh.
+ * It is a TokenBucket, sized and filled from the preferences, and saved in a private preferences file so the limit
+ * holds across restarts of the process and the device.
+ * 
+ * The bucket is kept in memory and saved each time a request takes a token, so a restart never gives back a request
+ * which has already been made.  A refused request takes nothing and is not saved.
+ * 
+ * @author rob gilham
+ *
+ */
+public class RequestBudget {
+
+	private static final String LOG_TAG = RequestBudget.class.getSimpleName();
+	
+	private static final String BUDGET_NAME = "techinc_budget";	// Name of the private preferences holding the bucket
+	private static final String KEY_TOKENS = "tokens";
+	private static final String KEY_LAST_REFILL = "last_refill";
+	
+	private static final double HOUR = 60 * 60 * 1000.0;
+	
+	
+	private final Preferences preferences;
+	private final SharedPreferences store;
+	
+	private TokenBucket bucket = null;	// Loaded from the store on the first request
+	private int burst;
+	private long rate;
+	
+	
+	public RequestBudget(Context context, Preferences preferences) {
+		this.preferences = preferences;
+		this.store = context.getSharedPreferences(BUDGET_NAME, Context.MODE_PRIVATE);
+	}
+	
+	
+	/**
+	 * Takes one request from the budget, if there is one.
+	 * 
+	 * @return zero if the request may go ahead, otherwise the number of milliseconds until it may.
+	 */
+	public synchronized long acquire() {
+		long now = System.currentTimeMillis();
+		TokenBucket bucket = getBucket(now);
+		
+		long wait = bucket.tryAcquire(now);
+		
+		if (0 == wait) {
+			Editor editor = store.edit();
+			editor.putFloat(KEY_TOKENS, (float)bucket.getTokens());
+			editor.putLong(KEY_LAST_REFILL, bucket.getLastRefill());
+			editor.commit();
+		}
+		
+		if (wait > 0)
+			Log.d(LOG_TAG, "request budget exhausted, next request allowed in " + (wait / 1000) + "s");
+		return wait;
+	}
+	
+	
+	/**
+	 * Gets the bucket, loading it from the store the first time and resizing it whenever the burst or rate preferences change.
+	 */
+	private TokenBucket getBucket(long now) {
+		int newBurst = (int)preferences.getRequestBurst();
+		long newRate = preferences.getRequestRate();
+		
+		if (null == bucket) {
+			if (store.contains(KEY_LAST_REFILL))
+				bucket = new TokenBucket(newBurst, newRate / HOUR, store.getFloat(KEY_TOKENS, newBurst), store.getLong(KEY_LAST_REFILL, now));
+			else
+				bucket = new TokenBucket(newBurst, newRate / HOUR, now);
+			
+		} else if (newBurst != burst || newRate != rate) {
+			bucket = new TokenBucket(newBurst, newRate / HOUR, bucket.getTokens(), bucket.getLastRefill());
+		}
+		
+		burst = newBurst;
+		rate = newRate;
+		return bucket;
+	}
+}
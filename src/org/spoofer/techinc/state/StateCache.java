@@ -0,0 +1,168 @@
+package org.spoofer.techinc.state;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.util.Log;
+
+/**
+ * The State Cache holds the last state read by the engine, in memory and in a private preferences file,
+ * so anything else on the device can read it without polling the server itself.
+ * Every change is announced to content observers of StateProvider.CONTENT_URI.
+ * 
+ * Refreshes requested while one is already in flight are coalesced into the one poll.
+ * 
+ * A poll which reads the same state as the last is only recorded in memory, unless a refresh is waiting on it or
+ * the saved read time is more than PERSIST_INTERVAL old, so the steady state costs no disk writes or observer calls.
+ * 
+ * @author rob gilham
+ *
+ */
+public class StateCache {
+
+	private static final String LOG_TAG = StateCache.class.getSimpleName();
+
+	private static final String CACHE_NAME = "techinc_state";	// Name of the private preferences holding the state
+	private static final String KEY_STATE = "state";		// 1 = open, 0 = closed, -1 = unknown
+	private static final String KEY_UPDATED = "updated";
+	private static final String KEY_CHANGED = "changed";
+	
+	private static final long REFRESH_TIMEOUT = 60 * 1000;	// Allow a new refresh if one has not completed in a minute
+	private static final long PERSIST_INTERVAL = 15 * 60 * 1000;	// Longest an unchanged state goes without saving its read time
+	
+	private static StateCache instance;
+	
+	
+	private final Context context;
+	private final SharedPreferences store;
+	
+	private Boolean state;
+	private long updated;
+	private long changed;
+	private long refreshRequested = 0;	// Time of the refresh in flight, zero if none
+	private long persisted;	// Read time last saved to the store
+	
+	
+	/**
+	 * Gets the cache shared by the application.
+	 */
+	public static synchronized StateCache getInstance(Context context) {
+		if (null == instance)
+			instance = new StateCache(context.getApplicationContext());
+		return instance;
+	}
+	
+	private StateCache(Context context) {
+		this.context = context;
+		this.store = context.getSharedPreferences(CACHE_NAME, Context.MODE_PRIVATE);
+		
+		int saved = store.getInt(KEY_STATE, -1);
+		state = saved < 0 ? null : Boolean.valueOf(saved == 1);
+		updated = store.getLong(KEY_UPDATED, 0);
+		changed = store.getLong(KEY_CHANGED, 0);
+		persisted = updated;
+	}
+
+	
+	/**
+	 * @return the last state read, or null if it has never been read.
+	 */
+	public synchronized Boolean getState() {
+		return state;
+	}
+
+	/**
+	 * @return the time, in milliseconds, the state was last read, or zero if never.
+	 */
+	public synchronized long getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return the time, in milliseconds, the state last changed, or zero if never.
+	 */
+	public synchronized long getChanged() {
+		return changed;
+	}
+	
+	/**
+	 * @return true if a refresh has been requested and not yet completed.
+	 */
+	public synchronized boolean isRefreshing() {
+		return 0 != refreshRequested && System.currentTimeMillis() - refreshRequested < REFRESH_TIMEOUT;
+	}
+	
+	
+	/**
+	 * Records a newly read state, and tells any observers if it changed or a refresh was waiting for it.
+	 * Called by the engine after each poll.
+	 */
+	public void publish(boolean newState) {
+		boolean notify;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			boolean isChange = null == state || newState != state.booleanValue();
+			if (isChange)
+				changed = now;
+			
+			notify = isChange || 0 != refreshRequested;
+			state = Boolean.valueOf(newState);
+			updated = now;
+			refreshRequested = 0;
+			
+			if (notify || now - persisted >= PERSIST_INTERVAL) {
+				Editor editor = store.edit();
+				editor.putInt(KEY_STATE, newState ? 1 : 0);
+				editor.putLong(KEY_UPDATED, updated);
+				editor.putLong(KEY_CHANGED, changed);
+				editor.commit();
+				persisted = now;
+			}
+		}
+		if (notify)
+			notifyObservers();
+	}
+	
+	/**
+	 * Records a failed poll, ending any refresh in flight.
+	 */
+	public void publishFailure() {
+		synchronized (this) {
+			refreshRequested = 0;
+		}
+		notifyObservers();
+	}
+	
+	
+	/**
+	 * Asks the engine to poll the state now.
+	 * If a refresh is already in flight, this one is coalesced into it.
+	 * Nothing is polled while the engine is not running, as the user has stopped it.
+	 * 
+	 * @return true if a new poll was started, false if joined to one in flight or the engine is not running.
+	 */
+	public boolean requestRefresh() {
+		if (!StateEngine.isRunning()) {
+			Log.d(LOG_TAG, "Not refreshing, the engine is not running");
+			return false;
+		}
+		
+		synchronized (this) {
+			if (isRefreshing())
+				return false;
+			refreshRequested = System.currentTimeMillis();
+		}
+		
+		Log.d(LOG_TAG, "Requesting state refresh");
+		Intent refresh = new Intent(context, StateEngine.class);
+		refresh.setAction(StateEngine.ACTION_REFRESH);
+		context.startService(refresh);
+		return true;
+	}
+	
+	
+	private void notifyObservers() {
+		context.getContentResolver().notifyChange(StateProvider.CONTENT_URI, null);
+	}
+}
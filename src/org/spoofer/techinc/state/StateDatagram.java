@@ -0,0 +1,137 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * State Datagram encodes and decodes the compact, binary UDP state protocol.
+ * 
+ * A request is a single 16 byte datagram:
+ * 	'T' 'S', version, type (1), 8 byte nonce, 4 reserved bytes
+ * 
+ * The reply is a single 32 byte datagram:
+ * 	'T' 'S', version, type (2), 8 byte nonce (copied from the request), state (1 open, 0 closed), 3 reserved bytes,
+ * 	4 byte sequence number, 4 byte suggested seconds until the next poll (0 for no suggestion),
+ * 	the first 8 bytes of the HMAC-SHA256 of the preceding 24 bytes, keyed with the secret shared by client and server.
+ * 
+ * The sequence number increases each time the state changes.  All values are big endian.
+ * 
+ * @author rob gilham
+ *
+ */
+public final class StateDatagram {
+
+	public static final int REQUEST_SIZE = 16;
+	public static final int REPLY_SIZE = 32;
+	
+	private static final byte MAGIC_T = 'T';
+	private static final byte MAGIC_S = 'S';
+	private static final byte VERSION = 1;
+	private static final byte TYPE_REQUEST = 1;
+	private static final byte TYPE_REPLY = 2;
+	
+	private static final int SIGNED_SIZE = 24;
+	private static final int MAC_SIZE = 8;
+	private static final String MAC_ALGORITHM = "HmacSHA256";
+	
+	
+	private StateDatagram() {
+	}
+	
+	
+	/**
+	 * A decoded, verified reply.
+	 */
+	public static class Reply {
+		public final long nonce;
+		public final boolean state;
+		public final int sequence;
+		public final int nextPoll;	// seconds, 0 for no suggestion
+		
+		Reply(long nonce, boolean state, int sequence, int nextPoll) {
+			this.nonce = nonce;
+			this.state = state;
+			this.sequence = sequence;
+			this.nextPoll = nextPoll;
+		}
+	}
+	
+	
+	public static byte[] encodeRequest(long nonce) {
+		ByteBuffer buffer = ByteBuffer.allocate(REQUEST_SIZE);
+		buffer.put(MAGIC_T).put(MAGIC_S).put(VERSION).put(TYPE_REQUEST).putLong(nonce).putInt(0);
+		return buffer.array();
+	}
+	
+	/**
+	 * Decodes a request.
+	 * @return the nonce of the request
+	 * @throws IOException if the datagram is not a valid request.
+	 */
+	public static long decodeRequest(byte[] data, int length) throws IOException {
+		if (length != REQUEST_SIZE || !isHeader(data, TYPE_REQUEST))
+			throw new IOException("invalid state request");
+		
+		return ByteBuffer.wrap(data, 4, 8).getLong();
+	}
+	
+	
+	public static byte[] encodeReply(long nonce, boolean state, int sequence, int nextPoll, byte[] key) {
+		ByteBuffer buffer = ByteBuffer.allocate(REPLY_SIZE);
+		buffer.put(MAGIC_T).put(MAGIC_S).put(VERSION).put(TYPE_REPLY).putLong(nonce)
+			.put((byte)(state ? 1 : 0)).put((byte)0).putShort((short)0)
+			.putInt(sequence).putInt(nextPoll);
+		
+		buffer.put(sign(buffer.array(), key), 0, MAC_SIZE);
+		return buffer.array();
+	}
+	
+	/**
+	 * Decodes and verifies a reply.
+	 * @throws IOException if the datagram is not a valid reply, or its signature does not match the key.
+	 */
+	public static Reply decodeReply(byte[] data, int length, byte[] key) throws IOException {
+		if (length != REPLY_SIZE || !isHeader(data, TYPE_REPLY))
+			throw new IOException("invalid state reply");
+		
+		byte[] mac = new byte[MAC_SIZE];
+		System.arraycopy(sign(data, key), 0, mac, 0, MAC_SIZE);
+		byte[] received = new byte[MAC_SIZE];
+		System.arraycopy(data, SIGNED_SIZE, received, 0, MAC_SIZE);
+		
+		if (!MessageDigest.isEqual(mac, received))
+			throw new IOException("state reply signature does not match");
+		
+		ByteBuffer buffer = ByteBuffer.wrap(data, 0, SIGNED_SIZE);
+		buffer.position(4);
+		long nonce = buffer.getLong();
+		boolean state = buffer.get() != 0;
+		buffer.position(16);
+		int sequence = buffer.getInt();
+		int nextPoll = buffer.getInt();
+		
+		return new Reply(nonce, state, sequence, nextPoll);
+	}
+	
+	
+	private static boolean isHeader(byte[] data, byte type) {
+		return data[0] == MAGIC_T && data[1] == MAGIC_S && data[2] == VERSION && data[3] == type;
+	}
+	
+	private static byte[] sign(byte[] data, byte[] key) {
+		try {
+			Mac mac = Mac.getInstance(MAC_ALGORITHM);
+			mac.init(new SecretKeySpec(key, MAC_ALGORITHM));
+			mac.update(data, 0, SIGNED_SIZE);
+			return mac.doFinal();
+			
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(MAC_ALGORITHM + " is not available", e);
+		}
+	}
+}
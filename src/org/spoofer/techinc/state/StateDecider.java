@@ -0,0 +1,74 @@
+package org.spoofer.techinc.state;
+
+/**
+ * The State Decider decides when a newly read state should be notified.
+ * A change is only notified once it has been read on 'confirmations' polls in a row, which debounces a state
+ * that flickers between polls.  With a single confirmation every change is notified as soon as it is seen.
+ * The first state read, when the last notified state is unknown, is always notified.
+ * 
+ * @author rob gilham
+ *
+ */
+public class StateDecider {
+
+	private final int confirmations;
+	
+	private Boolean lastState = null; // null = unknown state.
+	private int confirmed = 0;	// Number of polls in a row which have read a state different to the last state
+	
+	
+	public StateDecider() {
+		this(1);
+	}
+	
+	/**
+	 * @param confirmations the number of polls in a row which must read a new state before it is notified.
+	 */
+	public StateDecider(int confirmations) {
+		if (confirmations < 1)
+			throw new IllegalArgumentException("confirmations must be at least one");
+		this.confirmations = confirmations;
+	}
+
+	
+	/**
+	 * Updates the decider with a newly read state.
+	 * 
+	 * @param state the state just read, true is open.
+	 * @return true if the state should be notified.
+	 */
+	public boolean update(boolean state) {
+		if (null != lastState && state == lastState.booleanValue()) {
+			confirmed = 0;
+			return false;
+		}
+		
+		if (null != lastState && ++confirmed < confirmations)
+			return false;
+		
+		lastState = Boolean.valueOf(state);
+		confirmed = 0;
+		return true;
+	}
+	
+	/**
+	 * Gets the last notified state.
+	 * @return the last notified state, or null if it is unknown.
+	 */
+	public Boolean getLastState() {
+		return lastState;
+	}
+
+	/**
+	 * Sets the last notified state, such as when it is carried over from a previous run.
+	 * @param lastState the last notified state, or null if it is unknown.
+	 */
+	public void setLastState(Boolean lastState) {
+		this.lastState = lastState;
+		this.confirmed = 0;
+	}
+	
+	public int getConfirmations() {
+		return confirmations;
+	}
+}
@@ -1,26 +1,40 @@
 package org.spoofer.techinc.state;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.spoofer.techinc.Preferences;
-import org.spoofer.techinc.R;
+import org.spoofer.techinc.notify.NotificationDispatcher;
+import org.spoofer.techinc.page.PageCache;
+import org.spoofer.techinc.page.PagePrefetcher;
+import org.spoofer.techinc.schedule.PollScheduler;
+import org.spoofer.techinc.stats.OccupancyStore;
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
 
 import android.app.AlarmManager;
-import android.app.Notification;
-import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Context;
 import android.content.Intent;
-import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
+import android.os.Process;
 import android.util.Log;
 import android.widget.Toast;
 
 /**
  * This Service retrieves the state of the hacker space from its POLL URL
  * and sets the Notification state
+ * 
+ * Polls run on a single long lived worker thread.  A poll which reads an unchanged state reuses the reader,
+ * its buffer and the scheduled alarm's intent, so the steady state allocates little beyond the connection itself.
+ * 
+ * Next polls are kept by a PollScheduler, which arms the one alarm for the earliest endpoint due.
+ * The space is its only endpoint for now.
  * @author robgilham
  *
  */
@@ -32,19 +46,94 @@ public class StateEngine extends Service {
 	private static final String LOG_TAG = StateEngine.class.getSimpleName();
 
 	private static final int NOTIFY_ID = 1;
+	private static final int FIELDS_NOTIFY_ID = 2;	// Changes to the subscribed status fields
+
+	/**
+	 * Start action to poll the state once, without scheduling the next poll.  Used by StateCache.requestRefresh.
+	 * Only a running engine is refreshed, an engine started just for a refresh stops again without polling.
+	 */
+	public static final String ACTION_REFRESH = "org.spoofer.techinc.state.REFRESH";
+
+	/**
+	 * Start action of the alarm, to poll the endpoints which have fallen due.
+	 */
+	private static final String ACTION_WAKE = "org.spoofer.techinc.state.WAKE";
+
+	private static final String SPACE_ENDPOINT = "space";
+
+	private static final String TRACE_FILENAME = "engine.trace";
 
 	private Preferences preferences;
+	private volatile NotificationDispatcher dispatcher;	// Closed and cleared when the engine is destroyed, perhaps during a poll
+	private RequestBudget budget;
+	private OccupancyStore occupancy;
 
 
 	private static final String EXTRA_LAST_STATE = null;
-	private Boolean lastState = null; // null = unknown state.
+	private final StateDecider decider = new StateDecider();
 
 
 	private static final String WORKER_THREADNAME = "state_worker_thread";
-	private Thread workerThread = null;
+	private HandlerThread workerThread = null;
+	private Handler workerHandler = null;
+	private volatile boolean polling = false;	// true while a poll is waiting or running on the worker thread
+	private volatile boolean stopped = false;	// true once the engine has been destroyed
+	private volatile boolean scheduleNext = false;	// true when a start, other than a refresh, is waiting for the next poll to be scheduled
+	private boolean started = false;	// true once started other than for a refresh
+	private static volatile boolean running = false;	// true while a started engine is alive
 	private Handler guiHandler = new Handler();
 
 
+	private volatile long suggestedPollDelay = -1;	// Delay until the next poll suggested by the server, -1 for none
+	private volatile boolean pollDelayDirected = false;	// true if the suggestion is a directive, not just a freshness
+
+	// Kept between polls, and only replaced when their settings change.  Only used on the worker thread.
+	private StateReader stateReader = null;
+	private String stateURL = null;
+	private String statusFields = null;
+	private UdpStateReader udpStateReader = null;
+	private String udpStateURL = null;
+	private String udpStateKey = null;
+
+	private AlarmManager alarmManager = null;
+	private PendingIntent scheduledOperation = null;	// The intent of the last alarm, reused while the last state is unchanged
+	private Boolean scheduledState = null;
+	private boolean traceMapped = false;
+
+	private final List<String> dueEndpoints = new ArrayList<String>();
+	private final PollScheduler<String> scheduler = new PollScheduler<String>(new PollScheduler.Alarm() {
+		@Override
+		public void set(long triggerAtTime) {
+			getAlarmManager().set(AlarmManager.RTC, triggerAtTime, getScheduledOperation());
+		}
+
+		@Override
+		public void cancel() {
+			getAlarmManager().cancel(getScheduledOperation());
+		}
+	}, System.currentTimeMillis());
+
+	/**
+	 * Polls when the server suggests, held within the minimum and maximum poll delays,
+	 * or at the fixed delay set in the preferences if it made no suggestion.
+	 */
+	private final PollPolicy pollPolicy = new PollPolicy() {
+		@Override
+		public long getNextPollDelay(boolean state, boolean changed) {
+			long directed = getDirectedDelay();
+			return directed >= 0 ? directed : preferences.getPollDelay() * 1000;
+		}
+	};
+
+
+	/**
+	 * @return true if the engine has been started, and not since stopped, in this process.
+	 */
+	public static boolean isRunning() {
+		return running;
+	}
+
+
 	@Override
 	public IBinder onBind(Intent arg0) {
 		return null;
@@ -57,15 +146,60 @@ public class StateEngine extends Service {
 
 		Log.d(LOG_TAG, "State Engine is starting");
 
+		// An engine started just for a refresh would notify its first read as a change, and never stop
+		if (ACTION_REFRESH.equals(intent.getAction()) && !started) {
+			Log.d(LOG_TAG, "Ignoring refresh as the engine is not running");
+			StateCache.getInstance(getApplicationContext()).publishFailure();
+			stopSelf(startId);
+			return START_NOT_STICKY;
+		}
+
+		if (!traceMapped) {
+			traceMapped = true;
+			try {
+				Trace.map(new File(getFilesDir(), TRACE_FILENAME));
+			} catch (IOException e) {
+				Log.w(LOG_TAG, "Failed to map trace file, tracing in memory only", e);
+			}
+		}
+		Trace.event(TraceEvent.ALARM, intent.hasExtra(EXTRA_LAST_STATE) ? 1 : 0);
+
 		if (null == preferences)
 			preferences = new Preferences(getApplicationContext());
 
+		if (null == dispatcher)
+			dispatcher = new NotificationDispatcher(getApplicationContext(), preferences);
+
+		if (null == budget)
+			budget = new RequestBudget(getApplicationContext(), preferences);
+
+		if (null == occupancy)
+			occupancy = OccupancyStore.getInstance(getApplicationContext());
+		// Gaps between polls longer than twice the longest poll delay are not counted as observed
+		occupancy.getStats().setMaxGap(2000 * Math.max(preferences.getPollDelay(), preferences.getMaxPollDelay()));
+
 		if (intent.hasExtra(EXTRA_LAST_STATE))
-			lastState = Boolean.valueOf(intent.getBooleanExtra(EXTRA_LAST_STATE, false));
+			decider.setLastState(Boolean.valueOf(intent.getBooleanExtra(EXTRA_LAST_STATE, false)));
+
+		if (ACTION_WAKE.equals(intent.getAction()) && !isSpaceDue())
+			return START_NOT_STICKY;
+
+		if (!ACTION_REFRESH.equals(intent.getAction())) {
+			scheduleNext = true;
+			started = true;
+			running = true;
+		}
 
-		if (null == workerThread) {
-			workerThread = new Thread(checkState, WORKER_THREADNAME);
+		if (null == workerHandler) {
+			workerThread = new HandlerThread(WORKER_THREADNAME, Process.THREAD_PRIORITY_BACKGROUND);
 			workerThread.start();
+			workerHandler = new Handler(workerThread.getLooper());
+		}
+
+		stopped = false;
+		if (!polling) {
+			polling = true;
+			workerHandler.post(checkState);
 		}
 
 		return START_NOT_STICKY;
@@ -74,10 +208,26 @@ public class StateEngine extends Service {
 	@Override
 	public void onDestroy() {
 		super.onDestroy();
-		workerThread = null;
-		lastState = null;
+		stopped = true;
+		if (started)
+			running = false;
+		if (null != workerThread) {
+			workerHandler.removeCallbacks(checkState);
+			workerThread.quit();
+			workerThread = null;
+			workerHandler = null;
+			polling = false;
+		}
+		// A poll already running carries on until it sees stopped, so the decider is left for it, not reset
 		Log.d(LOG_TAG, "State Engine is stopping");
+		Trace.event(TraceEvent.STOP);
+		if (null != occupancy)
+			occupancy.save();
 		removeNotification();
+		NotificationDispatcher dispatcher = this.dispatcher;
+		this.dispatcher = null;
+		if (null != dispatcher)
+			dispatcher.close();
 	}
 
 
@@ -92,38 +242,203 @@ public class StateEngine extends Service {
 		public void run() {
 
 			Log.v(LOG_TAG, "starting worker thread to check state");
+			Trace.event(TraceEvent.WORKER_START);
 			
-			if (null == workerThread) {
+			if (stopped) {
 				Log.v(LOG_TAG, "worker thread aborting as engine has been stopped");
 				return;
 			}
-			String pollURL = preferences.getPollURL();
-			StateReader stateReader;
-
-			Log.v(LOG_TAG, "Checking state with " + pollURL);
 
 			try {
-				stateReader = new StateReader(pollURL);
-
-				boolean state = stateReader.getState();
+				boolean state = readState();
 				
-				String prevState = null == lastState ? "unknown" : (lastState ? "open" : "closed");
-				String currentState = state ? "open" : "closed";
-				Log.d(LOG_TAG, "previous state is " + prevState + ", current state is " + currentState);
+				if (Log.isLoggable(LOG_TAG, Log.DEBUG)) {
+					Boolean lastState = decider.getLastState();
+					String prevState = null == lastState ? "unknown" : (lastState ? "open" : "closed");
+					String currentState = state ? "open" : "closed";
+					Log.d(LOG_TAG, "previous state is " + prevState + ", current state is " + currentState);
+				}
+				
+				boolean changed = decider.update(state);
+				Trace.event(TraceEvent.DECISION, (state ? 1 : 0) + (changed ? 2 : 0));
+				
+				StateCache.getInstance(getApplicationContext()).publish(state);
+				
+				// Stopped while the state was being read, so nothing more is shown or recorded
+				if (stopped) {
+					Log.v(LOG_TAG, "worker thread finishing as engine has been stopped");
+					return;
+				}
 				
-				if (null == lastState || state != lastState.booleanValue())
+				if (changed)
 					showNotification(state);
 				
-				if (null != workerThread)
-					scheduleNextStartUp(state);
+				if (changed && state)
+					prefetchOpenPage();
+				
+				Boolean lastState = decider.getLastState();
+				if (null != lastState)
+					occupancy.update(lastState.booleanValue(), System.currentTimeMillis());
+				
+				if (!stopped && scheduleNext) {
+					scheduleNext = false;
+					scheduleNextStartUp(state, changed);
+				}
+
+			} catch (BudgetExhaustedException e) {
+				Log.d(LOG_TAG, "Poll deferred, " + e.getMessage());
+				Trace.event(TraceEvent.DEFERRED, (int)(e.getWait() / 1000));
+				StateCache.getInstance(getApplicationContext()).publishFailure();
+				
+				if (!stopped && scheduleNext) {
+					scheduleNext = false;
+					scheduleStartUp(e.getWait(), decider.getLastState());
+				}
 
 			} catch (IOException e) {
 				e.printStackTrace();
 				Log.e(LOG_TAG, "Failed to read current state " + e.getMessage(), e);
+				Trace.event(TraceEvent.ERROR);
+				StateCache.getInstance(getApplicationContext()).publishFailure();
+				
+				// Carry on polling if the server said when to come back, such as a Retry-After during maintenance
+				long directed = getDirectedDelay();
+				if (!stopped && scheduleNext && directed >= 0) {
+					scheduleNext = false;
+					scheduleStartUp(directed, decider.getLastState());
+				}
 				postMessage(e.getMessage());
+			
+			} finally {
+				polling = false;
 			}
+		}
 
-			workerThread = null;
+
+		/**
+		 * Reads the state over UDP, when the space supports it, falling back to polling the http URL.
+		 * Each request, including the fallback, is taken from the request budget.
+		 * 
+		 * @throws BudgetExhaustedException if the request budget refuses the request.
+		 */
+		private boolean readState() throws IOException {
+			String udpURL = preferences.getUdpURL();
+			suggestedPollDelay = -1;
+			acquireRequest();
+			
+			if (UdpStateReader.isUdpLocation(udpURL)) {
+				if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+					Log.v(LOG_TAG, "Checking state with " + udpURL);
+				try {
+					return readState(getUdpStateReader(udpURL));
+					
+				} catch (IllegalArgumentException e) {
+					Log.w(LOG_TAG, "Invalid udp state settings, falling back to http. " + e.getMessage());
+				} catch (IOException e) {
+					Log.w(LOG_TAG, "Failed to read state over udp, falling back to http. " + e.getMessage());
+					acquireRequest();
+				}
+			}
+			
+			String pollURL = preferences.getPollURL();
+			if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+				Log.v(LOG_TAG, "Checking state with " + pollURL);
+			
+			StateReader reader = getStateReader(pollURL);
+			boolean state = readState(reader);
+			showFieldChanges(reader.getDeltas(), state);
+			return state;
+		}
+		
+		private StateReader getStateReader(String pollURL) throws IOException {
+			if (null == stateReader || !pollURL.equals(stateURL)) {
+				stateReader = new StateReader(pollURL);
+				stateURL = pollURL;
+				statusFields = null;
+			}
+			
+			String fields = preferences.getStatusFields();
+			if (!fields.equals(statusFields)) {
+				try {
+					stateReader.setSubscriptions(FieldSubscription.parseList(fields));
+				} catch (IllegalArgumentException e) {
+					Log.w(LOG_TAG, "Invalid status fields, ignoring them. " + e.getMessage());
+					stateReader.setSubscriptions(FieldSubscription.parseList(Preferences.DEFAULT_STATUS_FIELDS));
+				}
+				statusFields = fields;
+			}
+			return stateReader;
+		}
+		
+		private UdpStateReader getUdpStateReader(String udpURL) throws IOException {
+			String udpKey = preferences.getUdpKey();
+			if (null == udpStateReader || !udpURL.equals(udpStateURL) || !udpKey.equals(udpStateKey)) {
+				udpStateReader = new UdpStateReader(udpURL, udpKey.getBytes("UTF-8"));
+				udpStateURL = udpURL;
+				udpStateKey = udpKey;
+			}
+			return udpStateReader;
+		}
+		
+		private boolean readState(StateSource source) throws IOException {
+			try {
+				return source.getState();
+			} finally {
+				pollDelayDirected = source.isPollDelayDirected();
+				suggestedPollDelay = source.getSuggestedPollDelay();
+			}
+		}
+
+
+		/**
+		 * Fetches the open URL page into the page cache, after this poll, if prefetching is on and costs the user nothing.
+		 */
+		private void prefetchOpenPage() {
+			if (!preferences.getPrefetchPage() || !PagePrefetcher.isUnmeteredOrCharging(getApplicationContext()))
+				return;
+			
+			Handler handler = workerHandler;
+			if (null == handler || stopped)
+				return;
+			
+			final String openURL = preferences.getOpenURL();
+			handler.post(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						new PagePrefetcher(PageCache.getInstance(getApplicationContext())).prefetch(openURL);
+					} catch (IOException e) {
+						Log.w(LOG_TAG, "Failed to prefetch " + openURL + ". " + e.getMessage());
+					}
+				}
+			});
+		}
+
+
+		/**
+		 * Shows the notable changes to the subscribed status fields as one notification.
+		 */
+		private void showFieldChanges(List<FieldDelta> deltas, boolean state) {
+			if (deltas.isEmpty())
+				return;
+			
+			StringBuilder message = new StringBuilder();
+			for (FieldDelta delta : deltas) {
+				if (message.length() > 0)
+					message.append(", ");
+				message.append(delta);
+			}
+			Log.d(LOG_TAG, "status fields changed: " + message);
+			NotificationDispatcher dispatcher = StateEngine.this.dispatcher;
+			if (null != dispatcher && !stopped)
+				dispatcher.showMessage(FIELDS_NOTIFY_ID, state, message.toString());
+		}
+
+
+		private void acquireRequest() throws BudgetExhaustedException {
+			long wait = budget.acquire();
+			if (wait > 0)
+				throw new BudgetExhaustedException(wait);
 		}
 
 
@@ -139,71 +454,91 @@ public class StateEngine extends Service {
 
 
 
-	private void showNotification(boolean state) {
-
-		Log.d(LOG_TAG, "showing notficiation for " + (state ? "open" : "closed"));
+	/**
+	 * Gets the server's suggested delay until the next poll, held within the minimum and maximum poll delays.
+	 * Only a directive, Retry-After or X-Next-Poll, may poll sooner than the user's poll delay.  A freshness from
+	 * Cache-Control or Expires may only poll later.
+	 * @return the delay in milliseconds, or -1 if the server made no suggestion.
+	 */
+	private long getDirectedDelay() {
+		long suggested = suggestedPollDelay;
+		if (suggested < 0)
+			return -1;
+		
+		if (!pollDelayDirected)
+			suggested = Math.max(suggested, preferences.getPollDelay() * 1000);
+		return PollDirectives.clamp(suggested, preferences.getMinPollDelay() * 1000, preferences.getMaxPollDelay() * 1000);
+	}
 
-		Notification notification = buildNotification(state);
-		NotificationManager notifyManager = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
-		notifyManager.notify(NOTIFY_ID, notification);
+	private void showNotification(boolean state) {
+		NotificationDispatcher dispatcher = this.dispatcher;
+		if (null != dispatcher && !stopped)
+			dispatcher.showNotification(NOTIFY_ID, state);
 	}
 
 	private void removeNotification() {
-		NotificationManager notifyManager = (NotificationManager)getSystemService(Context.NOTIFICATION_SERVICE);
-		notifyManager.cancel(NOTIFY_ID);
+		NotificationDispatcher dispatcher = this.dispatcher;
+		if (null != dispatcher)
+			dispatcher.removeNotification(NOTIFY_ID);
 	}
 
+	/**
+	 * Takes the endpoints which have fallen due from the scheduler.
+	 * A new engine has nothing scheduled, so an alarm left by an earlier one is taken as the space falling due.
+	 * @return true if the space is due to be polled.
+	 */
+	private boolean isSpaceDue() {
+		synchronized (dueEndpoints) {
+			dueEndpoints.clear();
+			scheduler.expire(System.currentTimeMillis(), dueEndpoints);
+			return dueEndpoints.contains(SPACE_ENDPOINT) || !scheduler.isScheduled(SPACE_ENDPOINT);
+		}
+	}
 
-	private Notification buildNotification(boolean state) {
-
-		long when = System.currentTimeMillis();
+	private void scheduleNextStartUp(boolean currentState, boolean changed) {
+		scheduleStartUp(pollPolicy.getNextPollDelay(currentState, changed), Boolean.valueOf(currentState));
+	}
 
-		String openURL = preferences.getOpenURL();
-		
-		Intent intent = new Intent(Intent.ACTION_VIEW, Uri.parse(openURL));
-		PendingIntent pi = PendingIntent.getActivity(getApplicationContext(), 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+	private void scheduleStartUp(long interval, Boolean lastState) {
 
-		Notification notify;
-		String titleText = getString(R.string.app_name);
-		String tickerText;
-		int icon;
+		Trace.event(TraceEvent.SCHEDULE, (int)(interval / 1000));
 
-		if (state) {
-			tickerText = getString(R.string.notify_open);
-			icon = R.drawable.techinclogo;
+		// The intent only carries the last state, so it is only rebuilt when that changes.
+		// FLAG_UPDATE_CURRENT updates the extras of an alarm already set with it.
+		synchronized (scheduler) {
+			if (null == scheduledOperation || (null == lastState ? null != scheduledState : !lastState.equals(scheduledState))) {
+				Context context = getApplicationContext();
+				Intent pollingRestart = new Intent(context, StateEngine.class);
+				pollingRestart.setAction(ACTION_WAKE);
+				if (null != lastState)
+					pollingRestart.putExtra(EXTRA_LAST_STATE, lastState.booleanValue());
 
-		}else{
-			tickerText = getString(R.string.notify_closed);
-			icon = R.drawable.techinclogo_mono;
+				scheduledOperation = PendingIntent.getService(context, 0, pollingRestart, PendingIntent.FLAG_UPDATE_CURRENT);
+				scheduledState = lastState;
+			}
 		}
 
-		notify = new Notification(icon, tickerText, when);
-		notify.setLatestEventInfo(getApplicationContext(), titleText, tickerText, pi);
-
-		//TODO: Read other preferences for notification, such as Sound file name, vibrate, etc
-		if (preferences.getVibrateNotify())
-			notify.vibrate = new long[]{0, 100, 100, 100, 100, 100};
-
-		String soundURI = preferences.getNotifySound();
-		if (null != soundURI &&  soundURI.length() > 0)
-			notify.sound = Uri.parse(soundURI);
-		return notify;
+		scheduler.schedule(SPACE_ENDPOINT, interval, System.currentTimeMillis());
 	}
 
-	private void scheduleNextStartUp(boolean currentState) {
-
-		Context context = getApplicationContext();
-		long interval = preferences.getPollDelay() * 1000;
-		long triggerAtTime = System.currentTimeMillis() + interval;
-
-		Intent pollingRestart = new Intent(context, StateEngine.class);
-		pollingRestart.putExtra(EXTRA_LAST_STATE, currentState);
-
-		PendingIntent operation = PendingIntent.getService(context, 0, pollingRestart, PendingIntent.FLAG_UPDATE_CURRENT);
-
-		AlarmManager alarmManager = (AlarmManager)getSystemService(ALARM_SERVICE);
-		alarmManager.set(AlarmManager.RTC, triggerAtTime, operation);
+	private AlarmManager getAlarmManager() {
+		if (null == alarmManager)
+			alarmManager = (AlarmManager)getSystemService(ALARM_SERVICE);
+		return alarmManager;
+	}
 
+	/**
+	 * Gets the intent of the alarm, building one without a last state if none has been scheduled yet.
+	 */
+	private PendingIntent getScheduledOperation() {
+		if (null == scheduledOperation) {
+			Context context = getApplicationContext();
+			Intent pollingRestart = new Intent(context, StateEngine.class);
+			pollingRestart.setAction(ACTION_WAKE);
+			scheduledOperation = PendingIntent.getService(context, 0, pollingRestart, PendingIntent.FLAG_UPDATE_CURRENT);
+			scheduledState = null;
+		}
+		return scheduledOperation;
 	}
 
 
@@ -0,0 +1,110 @@
+package org.spoofer.techinc.state;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.content.UriMatcher;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+/**
+ * The State Provider gives read access to the state cached by the engine, so widgets, automation tools and other
+ * apps can follow the space without polling the server themselves.
+ * 
+ * Query CONTENT_URI for a single row with the state (1 open, 0 closed, null unknown), the time it was last read,
+ * the time it last changed and whether a refresh is in flight.  Register a content observer on CONTENT_URI to hear of changes.
+ * 
+ * To ask for a fresh poll, update REFRESH_URI (with null values).  Concurrent refreshes are coalesced into one poll,
+ * and the result arrives as a change on CONTENT_URI.  Nothing is polled while the engine is stopped.
+ * Updating needs the REFRESH_PERMISSION, which only apps signed with the same key are granted.
+ * 
+ * @author rob gilham
+ *
+ */
+public class StateProvider extends ContentProvider {
+
+	public static final String AUTHORITY = "org.spoofer.techinc.state";
+	public static final String REFRESH_PERMISSION = "org.spoofer.techinc.permission.REFRESH_STATE";
+	public static final Uri CONTENT_URI = Uri.parse("content://" + AUTHORITY + "/state");
+	public static final Uri REFRESH_URI = Uri.parse("content://" + AUTHORITY + "/state/refresh");
+	
+	public static final String COLUMN_ID = "_id";
+	public static final String COLUMN_STATE = "state";
+	public static final String COLUMN_UPDATED = "updated";
+	public static final String COLUMN_CHANGED = "changed";
+	public static final String COLUMN_REFRESHING = "refreshing";
+	
+	private static final String[] COLUMNS = new String[]{COLUMN_ID, COLUMN_STATE, COLUMN_UPDATED, COLUMN_CHANGED, COLUMN_REFRESHING};
+	
+	private static final String CONTENT_TYPE = "vnd.android.cursor.item/vnd.org.spoofer.techinc.state";
+	
+	private static final int MATCH_STATE = 1;
+	private static final int MATCH_REFRESH = 2;
+	
+	private static final UriMatcher matcher = new UriMatcher(UriMatcher.NO_MATCH);
+	static {
+		matcher.addURI(AUTHORITY, "state", MATCH_STATE);
+		matcher.addURI(AUTHORITY, "state/refresh", MATCH_REFRESH);
+	}
+	
+	
+	@Override
+	public boolean onCreate() {
+		return true;
+	}
+
+	@Override
+	public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+		if (MATCH_STATE != matcher.match(uri))
+			throw new IllegalArgumentException("Unknown uri " + uri);
+		
+		StateCache cache = StateCache.getInstance(getContext());
+		Boolean state;
+		long updated, changed;
+		boolean refreshing;
+		synchronized (cache) {
+			state = cache.getState();
+			updated = cache.getUpdated();
+			changed = cache.getChanged();
+			refreshing = cache.isRefreshing();
+		}
+		
+		MatrixCursor cursor = new MatrixCursor(COLUMNS, 1);
+		cursor.addRow(new Object[]{
+				Integer.valueOf(1),
+				null == state ? null : Integer.valueOf(state.booleanValue() ? 1 : 0),
+				Long.valueOf(updated),
+				Long.valueOf(changed),
+				Integer.valueOf(refreshing ? 1 : 0)});
+		
+		cursor.setNotificationUri(getContext().getContentResolver(), CONTENT_URI);
+		return cursor;
+	}
+
+	@Override
+	public String getType(Uri uri) {
+		return MATCH_STATE == matcher.match(uri) ? CONTENT_TYPE : null;
+	}
+
+	/**
+	 * Updating REFRESH_URI asks the engine for a fresh poll.
+	 * @return 1 if a new poll was started, 0 if the request joined one already in flight or the engine is not running.
+	 */
+	@Override
+	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+		if (MATCH_REFRESH != matcher.match(uri))
+			throw new UnsupportedOperationException("The space state is read only");
+		
+		return StateCache.getInstance(getContext()).requestRefresh() ? 1 : 0;
+	}
+
+	@Override
+	public Uri insert(Uri uri, ContentValues values) {
+		throw new UnsupportedOperationException("The space state is read only");
+	}
+
+	@Override
+	public int delete(Uri uri, String selection, String[] selectionArgs) {
+		throw new UnsupportedOperationException("The space state is read only");
+	}
+}
@@ -1,34 +1,199 @@
 package org.spoofer.techinc.state;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
 
 import android.util.Log;
 
 /**
  * The Preview Reader will retrieve a State from a given URL
  * 
+ * The URL may return plain text, 'open' or 'closed' on the first line, or a JSON status such as SpaceAPI's,
+ * whose 'state.open', or older 'open', field holds the state.
+ * From a JSON status the reader also extracts the subscribed fields, while the status streams in, and keeps the
+ * notable changes since the last status read.  Everything else in the status is skipped.
+ * 
  * @author rob gilham
  *
  */
-public class StateReader extends PreviewReader {
+public class StateReader extends PreviewReader implements StateSource {
 	
 	private static final String LOG_TAG = StateReader.class.getSimpleName();
 
-	private static final String STATE_OPEN = "open";
+	private static final byte[] STATE_OPEN = { 'o', 'p', 'e', 'n' };
 	//private static final String STATE_CLOSED = "closed";
 	
+	private static final String[] STATUS_STATE_PATHS = { "state.open", "open" };	// SpaceAPI 0.13 and later, then earlier
+	
+	
+	private List<FieldSubscription> subscriptions = Collections.emptyList();
+	private StatusScanner scanner = null;	// Built for the subscriptions on the first JSON status
+	private StatusSnapshot snapshot = null;
+	private List<FieldDelta> deltas = Collections.emptyList();
+	
 	
 	public StateReader(String stateLocation) throws MalformedURLException {
 		super(stateLocation);
 	}
 	
 	
+	/**
+	 * Reads the state from the first line of the response, which is open if it reads 'open', ignoring case and
+	 * surrounding white space.  The line is compared in the reader's buffer, without building a String.
+	 * If the response is a JSON status the state is read from its open field instead.
+	 */
+	@Override
 	public boolean getState() throws IOException {
-		String value = getPreview(1);
-		boolean state = STATE_OPEN.equalsIgnoreCase(value.trim()); 
-		Log.v(LOG_TAG, "Retrieving STATE as " + value);
+		boolean state;
+		InputStream in = openStream();
+		try {
+			state = readState(in);
+		} finally {
+			in.close();
+		}
+		
+		Trace.event(TraceEvent.PARSE, state ? 1 : 0);
 		return state;
 	}
+	
+	/**
+	 * Reads the state from a response body, as getState does once connected, for a body which has been fetched
+	 * some other way, such as by the LoadGenerator.
+	 * 
+	 * @param in the body, which is left open.
+	 * @return the state, true if open.
+	 * @throws IOException if the body can not be read, or is a JSON status without an open state.
+	 */
+	public boolean readState(InputStream in) throws IOException {
+		int read = readStart(in);
+		if (isDocument(getBuffer(), read))
+			return readStatus(in, read);
+		
+		int length = readLines(in, 1, read);
+		snapshot = null;
+		deltas = Collections.emptyList();
+		if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+			Log.v(LOG_TAG, "Retrieving STATE as " + new String(getBuffer(), 0, length));
+		return isOpen(getBuffer(), length);
+	}
+	
+	
+	/**
+	 * Sets the fields to extract from a JSON status.  Changing them forgets the last snapshot.
+	 * 
+	 * @param subscriptions the fields, which may be empty.
+	 */
+	public void setSubscriptions(List<FieldSubscription> subscriptions) {
+		this.subscriptions = Collections.unmodifiableList(new ArrayList<FieldSubscription>(subscriptions));
+		scanner = null;
+		snapshot = null;
+		deltas = Collections.emptyList();
+	}
+	
+	public List<FieldSubscription> getSubscriptions() {
+		return subscriptions;
+	}
+	
+	/**
+	 * @return the subscribed fields from the last JSON status read, or null if the last response was not a JSON status.
+	 */
+	public StatusSnapshot getSnapshot() {
+		return snapshot;
+	}
+	
+	/**
+	 * @return the notable changes to the subscribed fields made by the last status read, empty if there were none.
+	 */
+	public List<FieldDelta> getDeltas() {
+		return deltas;
+	}
+	
+	
+	/**
+	 * Reads the start of the response into the buffer, until it holds something other than white space.
+	 * @return the number of bytes read.
+	 */
+	private int readStart(InputStream in) throws IOException {
+		byte[] buffer = getBuffer();
+		int read = 0;
+		while (read < buffer.length) {
+			int count = in.read(buffer, read, buffer.length - read);
+			if (count < 0)
+				break;
+			
+			for (int i = read; i < read + count; i++) {
+				if ((buffer[i] & 0xff) > ' ')
+					return read + count;
+			}
+			read += count;
+		}
+		return read;
+	}
+	
+	private boolean readStatus(InputStream in, int read) throws IOException {
+		if (null == scanner) {
+			byte[][] paths = new byte[STATUS_STATE_PATHS.length + subscriptions.size()][];
+			for (int i = 0; i < STATUS_STATE_PATHS.length; i++)
+				paths[i] = STATUS_STATE_PATHS[i].getBytes("UTF-8");
+			for (int i = 0; i < subscriptions.size(); i++)
+				paths[STATUS_STATE_PATHS.length + i] = subscriptions.get(i).getPathBytes();
+			scanner = new StatusScanner(paths);
+		}
+		
+		Trace.event(TraceEvent.RESPONSE, read);
+		Object[] values = scanner.scan(in, getBuffer(), read);
+		
+		Object open = null;
+		for (int i = 0; i < STATUS_STATE_PATHS.length && !(open instanceof Boolean); i++)
+			open = values[i];
+		if (!(open instanceof Boolean))
+			throw new IOException("Status has no open state");
+		
+		if (!subscriptions.isEmpty()) {
+			Object[] fields = new Object[subscriptions.size()];
+			System.arraycopy(values, STATUS_STATE_PATHS.length, fields, 0, fields.length);
+			
+			StatusSnapshot previous = snapshot;
+			snapshot = new StatusSnapshot(subscriptions, fields, System.currentTimeMillis());
+			deltas = snapshot.getDeltas(previous);
+		}
+		
+		if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+			Log.v(LOG_TAG, "Retrieving STATE from status as " + open + ", " + deltas.size() + " field changes");
+		return ((Boolean)open).booleanValue();
+	}
+	
+	
+	private static boolean isDocument(byte[] start, int length) {
+		for (int i = 0; i < length; i++) {
+			if ((start[i] & 0xff) > ' ')
+				return '{' == start[i];
+		}
+		return false;
+	}
+	
+	private static boolean isOpen(byte[] line, int length) {
+		int start = 0;
+		while (start < length && (line[start] & 0xff) <= ' ')
+			start++;
+		while (length > start && (line[length - 1] & 0xff) <= ' ')
+			length--;
+		
+		if (length - start != STATE_OPEN.length)
+			return false;
+		
+		for (int i = 0; i < STATE_OPEN.length; i++) {
+			if ((line[start + i] | 0x20) != STATE_OPEN[i])	// Lower case ASCII letters
+				return false;
+		}
+		return true;
+	}
 		
 }
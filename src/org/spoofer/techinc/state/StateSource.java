@@ -0,0 +1,37 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+
+/**
+ * A State Source reads the current state of the space.
+ * 
+ * @author rob gilham
+ *
+ */
+public interface StateSource {
+
+	/**
+	 * Reads the current state.
+	 * 
+	 * @return true if the space is open, false if closed.
+	 * @throws IOException if the state could not be read.
+	 */
+	boolean getState() throws IOException;
+	
+	/**
+	 * Gets the delay until the next poll suggested by the server in its last response.
+	 * A suggestion may be made even when reading the state failed, such as when the server is down for maintenance.
+	 * 
+	 * @return the suggested delay in milliseconds, or -1 if the server made no suggestion.
+	 */
+	long getSuggestedPollDelay();
+	
+	/**
+	 * Tells if the suggested delay is a directive from the server, which may poll sooner than the user's poll delay,
+	 * or only how long the state stays fresh, which may only poll later.
+	 * 
+	 * @return true if the suggestion is a directive.
+	 */
+	boolean isPollDelayDirected();
+	
+}
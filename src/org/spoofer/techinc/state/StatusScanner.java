@@ -0,0 +1,416 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * The Status Scanner reads a JSON status document as it streams in, and extracts only the values at the given paths.
+ *
+ * The path of each value is tracked as bytes while the document is read.  Once the path leads away from every
+ * wanted path the rest of that object or array is skipped, with no keys, strings or numbers built from it.
+ * Only the wanted values are materialised: strings as String, numbers as Double and true or false as Boolean.
+ *
+ * Keys are matched as they are written, so a key containing escapes will not match.
+ * A scanner reuses its buffers, so must not be shared between threads.
+ *
+ * @author rob gilham
+ *
+ */
+class StatusScanner {
+
+	private static final int BUFFER_SIZE = 1024;
+	private static final int MAX_DEPTH = 32;
+	private static final int MAX_PATH = 256;	// Longer paths are never wanted
+	private static final int MAX_VALUE = 4096;	// Longer strings are cut short
+
+	private static final int NO_MATCH = -1;
+
+
+	private final byte[][] paths;
+	private final Object[] values;
+
+	private final byte[] readBuffer = new byte[BUFFER_SIZE];
+	private InputStream in;
+	private byte[] chunk;
+	private int pos;
+	private int limit;
+
+	private final byte[] path = new byte[MAX_PATH];
+	private int pathLength;
+	private byte[] value = new byte[64];
+	private int valueLength;
+
+
+	/**
+	 * @param paths the dotted paths of the values to extract.
+	 */
+	StatusScanner(byte[][] paths) {
+		this.paths = paths;
+		this.values = new Object[paths.length];
+	}
+
+
+	/**
+	 * Scans a document, whose start may already have been read.
+	 *
+	 * @param in the rest of the document.
+	 * @param start the bytes already read from the start of the document.
+	 * @param length the number of bytes already read.
+	 * @return the values found, in the order of the paths, null where a path was missing.  Valid until the next scan.
+	 * @throws IOException if the document can not be read or is not valid JSON.
+	 */
+	Object[] scan(InputStream in, byte[] start, int length) throws IOException {
+		this.in = in;
+		chunk = start;
+		pos = 0;
+		limit = length;
+		pathLength = 0;
+		for (int i = 0; i < values.length; i++)
+			values[i] = null;
+
+		try {
+			parseValue(0, true);
+		} finally {
+			this.in = null;
+			chunk = null;
+		}
+		return values;
+	}
+
+
+	/**
+	 * Parses the value at the current path.
+	 *
+	 * @param tracked true if the current path is, or leads to, a wanted path.
+	 */
+	private void parseValue(int depth, boolean tracked) throws IOException {
+		int match = tracked ? findMatch() : NO_MATCH;
+		int c = nextToken();
+
+		switch (c) {
+		case '{':
+			parseObject(depth + 1, tracked);
+			break;
+
+		case '[':
+			parseArray(depth + 1, tracked);
+			break;
+
+		case '"':
+			if (NO_MATCH == match)
+				skipString();
+			else
+				values[match] = readString();
+			break;
+
+		case 't':
+			expect("rue");
+			if (NO_MATCH != match)
+				values[match] = Boolean.TRUE;
+			break;
+
+		case 'f':
+			expect("alse");
+			if (NO_MATCH != match)
+				values[match] = Boolean.FALSE;
+			break;
+
+		case 'n':
+			expect("ull");
+			break;
+
+		default:
+			if ('-' != c && (c < '0' || c > '9'))
+				throw invalid(c);
+
+			Double number = readNumber(c, NO_MATCH != match);
+			if (NO_MATCH != match)
+				values[match] = number;
+		}
+	}
+
+	private void parseObject(int depth, boolean tracked) throws IOException {
+		checkDepth(depth);
+		int base = pathLength;
+
+		int c = nextToken();
+		if ('}' == c)
+			return;
+
+		while (true) {
+			if ('"' != c)
+				throw invalid(c);
+
+			boolean childTracked = false;
+			if (tracked && appendKey(base))
+				childTracked = isWanted();
+			else
+				skipString();	// The rest of the key, not needed
+
+			if (':' != nextToken())
+				throw new IOException("Invalid status, expected ':'");
+
+			parseValue(depth, childTracked);
+			pathLength = base;
+
+			c = nextToken();
+			if ('}' == c)
+				return;
+			if (',' != c)
+				throw invalid(c);
+			c = nextToken();
+		}
+	}
+
+	private void parseArray(int depth, boolean tracked) throws IOException {
+		checkDepth(depth);
+		int base = pathLength;
+
+		int c = nextToken();
+		if (']' == c)
+			return;
+		pos--;
+
+		for (int index = 0; ; index++) {
+			boolean childTracked = tracked && appendIndex(base, index) && isWanted();
+			parseValue(depth, childTracked);
+			pathLength = base;
+
+			c = nextToken();
+			if (']' == c)
+				return;
+			if (',' != c)
+				throw invalid(c);
+		}
+	}
+
+
+	/**
+	 * Appends the key, whose opening quote has been read, to the path, reading up to and including its closing quote.
+	 * @return false if the path is too long, when the rest of the key is left to be skipped.
+	 */
+	private boolean appendKey(int base) throws IOException {
+		pathLength = base;
+		if (!appendSeparator())
+			return false;
+
+		int c;
+		while ('"' != (c = next())) {
+			if (pathLength == MAX_PATH) {
+				pos--;
+				return false;
+			}
+			path[pathLength++] = (byte)c;
+			if ('\\' == c) {
+				int escaped = next();
+				if (pathLength == MAX_PATH)
+					return false;	// Too long, the rest of the key is skipped
+				path[pathLength++] = (byte)escaped;
+			}
+		}
+		return true;
+	}
+
+	private boolean appendIndex(int base, int index) {
+		pathLength = base;
+		if (!appendSeparator())
+			return false;
+
+		int digits = 1;
+		for (int n = index; n >= 10; n /= 10)
+			digits++;
+		if (pathLength + digits > MAX_PATH)
+			return false;
+
+		for (int i = digits - 1; i >= 0; i--, index /= 10)
+			path[pathLength + i] = (byte)('0' + index % 10);
+		pathLength += digits;
+		return true;
+	}
+
+	private boolean appendSeparator() {
+		if (0 == pathLength)
+			return true;
+		if (pathLength == MAX_PATH)
+			return false;
+		path[pathLength++] = '.';
+		return true;
+	}
+
+	/**
+	 * @return true if the current path is, or leads to, a wanted path.
+	 */
+	private boolean isWanted() {
+		for (byte[] wanted : paths) {
+			if (wanted.length == pathLength || (wanted.length > pathLength && '.' == wanted[pathLength])) {
+				if (startsWith(wanted))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the index of the wanted path equal to the current path, or NO_MATCH.
+	 */
+	private int findMatch() {
+		for (int i = 0; i < paths.length; i++) {
+			if (paths[i].length == pathLength && startsWith(paths[i]))
+				return i;
+		}
+		return NO_MATCH;
+	}
+
+	private boolean startsWith(byte[] wanted) {
+		for (int i = 0; i < pathLength; i++) {
+			if (wanted[i] != path[i])
+				return false;
+		}
+		return true;
+	}
+
+
+	private String readString() throws IOException {
+		valueLength = 0;
+		int c;
+		while ('"' != (c = next())) {
+			if ('\\' == c)
+				readEscape();
+			else
+				appendValue(c);
+		}
+		return new String(value, 0, valueLength, "UTF-8");
+	}
+
+	private void readEscape() throws IOException {
+		int c = next();
+		switch (c) {
+		case 'b': appendValue('\b'); break;
+		case 'f': appendValue('\f'); break;
+		case 'n': appendValue('\n'); break;
+		case 'r': appendValue('\r'); break;
+		case 't': appendValue('\t'); break;
+		case 'u':
+			int code = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit(next(), 16);
+				if (digit < 0)
+					throw new IOException("Invalid status, bad unicode escape");
+				code = code * 16 + digit;
+			}
+
+			// Written as UTF-8, surrogate pairs are left as two characters
+			if (code < 0x80) {
+				appendValue(code);
+			} else if (code < 0x800) {
+				appendValue(0xc0 | code >> 6);
+				appendValue(0x80 | code & 0x3f);
+			} else {
+				appendValue(0xe0 | code >> 12);
+				appendValue(0x80 | code >> 6 & 0x3f);
+				appendValue(0x80 | code & 0x3f);
+			}
+			break;
+		default:
+			appendValue(c);	// '"', '\\' and '/'
+		}
+	}
+
+	private void appendValue(int b) {
+		if (valueLength == value.length) {
+			if (value.length >= MAX_VALUE)
+				return;
+			byte[] larger = new byte[Math.min(MAX_VALUE, value.length * 2)];
+			System.arraycopy(value, 0, larger, 0, valueLength);
+			value = larger;
+		}
+		value[valueLength++] = (byte)b;
+	}
+
+	private void skipString() throws IOException {
+		int c;
+		while ('"' != (c = next())) {
+			if ('\\' == c)
+				next();
+		}
+	}
+
+	/**
+	 * Reads a number, whose first character has been read.
+	 * @param keep true to build the number, false to skip it.
+	 * @return the number, or null if not kept.
+	 */
+	private Double readNumber(int first, boolean keep) throws IOException {
+		valueLength = 0;
+		int c = first;
+		while (('0' <= c && c <= '9') || '-' == c || '+' == c || '.' == c || 'e' == c || 'E' == c) {
+			if (keep)
+				appendValue(c);
+			c = nextOrEnd();
+		}
+		if (c >= 0)
+			pos--;
+
+		if (!keep)
+			return null;
+		try {
+			return Double.valueOf(new String(value, 0, valueLength, "US-ASCII"));
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid status, bad number");
+		}
+	}
+
+	private void expect(String rest) throws IOException {
+		for (int i = 0; i < rest.length(); i++) {
+			int c = next();
+			if (rest.charAt(i) != c)
+				throw invalid(c);
+		}
+	}
+
+
+	/**
+	 * @return the next character which is not white space.
+	 */
+	private int nextToken() throws IOException {
+		int c;
+		do {
+			c = next();
+		} while (' ' == c || '\t' == c || '\n' == c || '\r' == c);
+		return c;
+	}
+
+	private int next() throws IOException {
+		int c = nextOrEnd();
+		if (c < 0)
+			throw new IOException("Invalid status, ended too soon");
+		return c;
+	}
+
+	/**
+	 * @return the next byte, or -1 at the end of the document.  After a byte is read, pos-- puts it back.
+	 */
+	private int nextOrEnd() throws IOException {
+		if (pos == limit) {
+			int read;
+			do {
+				read = in.read(readBuffer, 0, readBuffer.length);
+			} while (0 == read);
+			if (read < 0)
+				return -1;
+			chunk = readBuffer;
+			pos = 0;
+			limit = read;
+		}
+		return chunk[pos++] & 0xff;
+	}
+
+	private static void checkDepth(int depth) throws IOException {
+		if (depth > MAX_DEPTH)
+			throw new IOException("Invalid status, nested deeper than " + MAX_DEPTH);
+	}
+
+	private static IOException invalid(int c) {
+		return new IOException("Invalid status, unexpected " + (c < 0 ? "end" : "'" + (char)c + "'"));
+	}
+}
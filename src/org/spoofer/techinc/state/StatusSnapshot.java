@@ -0,0 +1,70 @@
+package org.spoofer.techinc.state;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Status Snapshot holds the values of the subscribed fields read from one status document,
+ * in the order of the subscriptions.
+ *
+ * @author rob gilham
+ *
+ */
+public class StatusSnapshot {
+
+	private final List<FieldSubscription> subscriptions;
+	private final Object[] values;
+	private final long time;
+
+
+	StatusSnapshot(List<FieldSubscription> subscriptions, Object[] values, long time) {
+		this.subscriptions = subscriptions;
+		this.values = values;
+		this.time = time;
+	}
+
+
+	/**
+	 * Gets the notable changes since an earlier snapshot of the same subscriptions.
+	 *
+	 * @param previous the earlier snapshot, or null if there was none, when nothing is notable.
+	 * @return the notable changes, empty if there are none.
+	 */
+	public List<FieldDelta> getDeltas(StatusSnapshot previous) {
+		List<FieldDelta> deltas = new ArrayList<FieldDelta>();
+		if (null == previous || previous.subscriptions != subscriptions)
+			return deltas;
+
+		for (int i = 0; i < values.length; i++) {
+			FieldSubscription subscription = subscriptions.get(i);
+			if (subscription.isNotable(previous.values[i], values[i]))
+				deltas.add(new FieldDelta(subscription, previous.values[i], values[i]));
+		}
+		return deltas;
+	}
+
+	/**
+	 * Gets the value of the given field.
+	 *
+	 * @param path the path of a subscribed field.
+	 * @return the value, a String, Double or Boolean, or null if the field was missing or is not subscribed.
+	 */
+	public Object getValue(String path) {
+		for (int i = 0; i < values.length; i++) {
+			if (subscriptions.get(i).getPath().equals(path))
+				return values[i];
+		}
+		return null;
+	}
+
+	public List<FieldSubscription> getSubscriptions() {
+		return subscriptions;
+	}
+
+	/**
+	 * @return the time, in milliseconds, the snapshot was read.
+	 */
+	public long getTime() {
+		return time;
+	}
+}
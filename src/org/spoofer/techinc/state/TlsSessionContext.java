@@ -0,0 +1,70 @@
+package org.spoofer.techinc.state;
+
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+
+/**
+ * The TLS Session Context is the SSLContext used for every https poll.
+ * Its client session cache keeps the sessions negotiated with each host, so later polls to the same host resume the
+ * session with an abbreviated handshake rather than paying for a full one.
+ * 
+ * The default context lives as long as the process, so sessions carry over when the engine service is stopped and started
+ * again.  The platform gives no way to save sessions, so they are lost when the process is killed.
+ * 
+ * @author rob gilham
+ *
+ */
+public class TlsSessionContext {
+
+	public static final int SESSION_CACHE_SIZE = 16;
+	public static final int SESSION_TIMEOUT = 24 * 60 * 60;	// One day, in seconds
+	
+	private static TlsSessionContext defaultContext;
+	
+	
+	private final SSLContext context;
+	
+	
+	/**
+	 * Gets the context shared by every poll, using the platform's trusted certificates.
+	 */
+	public static synchronized TlsSessionContext getDefault() throws GeneralSecurityException {
+		if (null == defaultContext)
+			defaultContext = new TlsSessionContext(null);
+		return defaultContext;
+	}
+	
+	
+	/**
+	 * Creates a new context with its own session cache.
+	 * 
+	 * @param trustManagers the trust managers to check servers with, or null for the platform's trusted certificates.
+	 */
+	public TlsSessionContext(TrustManager[] trustManagers) throws GeneralSecurityException {
+		context = SSLContext.getInstance("TLS");
+		context.init(null, trustManagers, null);
+		
+		SSLSessionContext sessions = context.getClientSessionContext();
+		sessions.setSessionCacheSize(SESSION_CACHE_SIZE);
+		sessions.setSessionTimeout(SESSION_TIMEOUT);
+	}
+	
+	
+	/**
+	 * @return the socket factory whose sockets share this context's session cache.
+	 */
+	public SSLSocketFactory getSocketFactory() {
+		return context.getSocketFactory();
+	}
+	
+	/**
+	 * @return the cache of client sessions.
+	 */
+	public SSLSessionContext getSessionContext() {
+		return context.getClientSessionContext();
+	}
+}
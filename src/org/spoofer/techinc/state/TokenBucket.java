@@ -0,0 +1,84 @@
+package org.spoofer.techinc.state;
+
+/**
+ * A Token Bucket allows short bursts of requests while holding the long term rate to a limit.
+ * The bucket holds up to 'capacity' tokens and refills at a steady rate, each request takes one token.
+ * 
+ * Time is passed in, rather than read, so the bucket can be saved and restored across restarts.
+ * If time goes backwards, such as when the clock is set back, the bucket simply carries on from the new time without refilling.
+ * 
+ * @author rob gilham
+ *
+ */
+public class TokenBucket {
+
+	private final int capacity;
+	private final double rate;	// Tokens per millisecond
+	
+	private double tokens;
+	private long lastRefill;
+	
+	
+	/**
+	 * Creates a full bucket.
+	 * 
+	 * @param capacity the largest burst of requests allowed.
+	 * @param rate the sustained rate, in requests per millisecond.
+	 * @param now the current time in milliseconds.
+	 */
+	public TokenBucket(int capacity, double rate, long now) {
+		this(capacity, rate, capacity, now);
+	}
+	
+	/**
+	 * Restores a bucket.
+	 * 
+	 * @param capacity the largest burst of requests allowed.
+	 * @param rate the sustained rate, in requests per millisecond.
+	 * @param tokens the tokens held when the bucket was saved.
+	 * @param lastRefill the time the bucket was last refilled, in milliseconds.
+	 */
+	public TokenBucket(int capacity, double rate, double tokens, long lastRefill) {
+		if (capacity < 1 || rate <= 0)
+			throw new IllegalArgumentException("capacity and rate must be positive");
+		
+		this.capacity = capacity;
+		this.rate = rate;
+		this.tokens = Math.max(0, Math.min(capacity, tokens));
+		this.lastRefill = lastRefill;
+	}
+	
+	
+	/**
+	 * Takes a token if one is available.
+	 * 
+	 * @param now the current time in milliseconds.
+	 * @return zero if a token was taken, otherwise the number of milliseconds until one will be available.
+	 */
+	public long tryAcquire(long now) {
+		refill(now);
+		
+		if (tokens >= 1.0) {
+			tokens -= 1.0;
+			return 0;
+		}
+		return Math.max(1, (long)Math.ceil((1.0 - tokens) / rate));
+	}
+	
+	public double getTokens() {
+		return tokens;
+	}
+	
+	public long getLastRefill() {
+		return lastRefill;
+	}
+	
+	
+	private void refill(long now) {
+		long elapsed = now - lastRefill;
+		if (elapsed > 0)
+			tokens = Math.min(capacity, tokens + elapsed * rate);
+		
+		lastRefill = now;
+	}
+}
@@ -0,0 +1,176 @@
+package org.spoofer.techinc.state;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.security.SecureRandom;
+
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
+
+import android.util.Log;
+
+/**
+ * The UDP State Reader reads the state with a single datagram, using the compact protocol of StateDatagram,
+ * from a location of the form udp://host:port
+ * 
+ * The request is sent again if no reply arrives in time, waiting twice as long each time.
+ * Replies that do not carry the request's nonce or whose signature does not match the key are ignored.
+ * A reader reuses its reply buffer, so must not be shared between threads.
+ * 
+ * @author rob gilham
+ *
+ */
+public class UdpStateReader implements StateSource {
+
+	private static final String LOG_TAG = UdpStateReader.class.getSimpleName();
+	
+	public static final String SCHEME = "udp";
+	
+	private static final int DEFAULT_TIMEOUT = 1000;	// First wait for a reply, in milliseconds
+	private static final int DEFAULT_ATTEMPTS = 3;
+	
+	private static final SecureRandom random = new SecureRandom();
+	
+	
+	private final String host;
+	private final int port;
+	private final byte[] key;
+	
+	private int timeout = DEFAULT_TIMEOUT;
+	private int attempts = DEFAULT_ATTEMPTS;
+	
+	private final byte[] reply = new byte[StateDatagram.REPLY_SIZE + 1];	// One extra to spot oversized datagrams
+	
+	private int sequence = -1;
+	private int nextPoll = 0;
+	
+	
+	/**
+	 * @param location the location of the responder, as udp://host:port
+	 * @param key the secret shared with the responder, used to check the reply signature.
+	 * @throws IllegalArgumentException if the location is not a valid udp location, or the key is empty.
+	 */
+	public UdpStateReader(String location, byte[] key) throws IllegalArgumentException {
+		URI uri = URI.create(location);
+		if (!SCHEME.equalsIgnoreCase(uri.getScheme()) || null == uri.getHost() || uri.getPort() < 0)
+			throw new IllegalArgumentException("Invalid udp state location " + location);
+		if (null == key || key.length == 0)
+			throw new IllegalArgumentException("udp state key can not be empty");
+		
+		this.host = uri.getHost();
+		this.port = uri.getPort();
+		this.key = key;
+	}
+	
+	
+	/**
+	 * Checks if the given location is read over UDP, rather than http.
+	 */
+	public static boolean isUdpLocation(String location) {
+		return null != location && location.toLowerCase().startsWith(SCHEME + "://");
+	}
+	
+	
+	@Override
+	public boolean getState() throws IOException {
+		// A request without a reply has no directive, so none can be left over from the last reply
+		sequence = -1;
+		nextPoll = 0;
+		
+		long nonce = random.nextLong();
+		byte[] request = StateDatagram.encodeRequest(nonce);
+		
+		InetAddress address = InetAddress.getByName(host);
+		DatagramSocket socket = new DatagramSocket();
+		try {
+			int wait = timeout;
+			for (int attempt = 1; attempt <= attempts; attempt++, wait *= 2) {
+				
+				if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+					Log.v(LOG_TAG, "Sending state request " + attempt + " to " + host + ":" + port);
+				Trace.event(TraceEvent.CONNECT, attempt);
+				socket.send(new DatagramPacket(request, request.length, address, port));
+				
+				long deadline = System.currentTimeMillis() + wait;
+				long remaining;
+				while ((remaining = deadline - System.currentTimeMillis()) > 0) {
+					socket.setSoTimeout((int)remaining);
+					DatagramPacket packet = new DatagramPacket(reply, reply.length);
+					try {
+						socket.receive(packet);
+					} catch (SocketTimeoutException e) {
+						break;
+					}
+					
+					try {
+						StateDatagram.Reply decoded = StateDatagram.decodeReply(packet.getData(), packet.getLength(), key);
+						if (decoded.nonce != nonce) {
+							Log.v(LOG_TAG, "Ignoring state reply to an earlier request");
+							continue;
+						}
+						
+						Trace.event(TraceEvent.RESPONSE, packet.getLength());
+						sequence = decoded.sequence;
+						nextPoll = decoded.nextPoll;
+						if (Log.isLoggable(LOG_TAG, Log.VERBOSE))
+							Log.v(LOG_TAG, "Retrieving STATE as " + (decoded.state ? "open" : "closed") + ", sequence " + sequence);
+						return decoded.state;
+						
+					} catch (IOException e) {
+						Log.w(LOG_TAG, "Ignoring invalid state reply from " + packet.getAddress() + ": " + e.getMessage());
+					}
+				}
+			}
+		} finally {
+			socket.close();
+		}
+		
+		throw new SocketTimeoutException("No state reply from " + host + ":" + port + " after " + attempts + " attempts");
+	}
+	
+	
+	/**
+	 * @return the sequence number of the last reply, or -1 if the last request had no reply.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+	
+	/**
+	 * @return the seconds until the next poll suggested by the last reply, or zero if there was no suggestion or no reply.
+	 */
+	public int getNextPoll() {
+		return nextPoll;
+	}
+	
+	@Override
+	public long getSuggestedPollDelay() {
+		return nextPoll > 0 ? nextPoll * 1000L : -1;
+	}
+	
+	/**
+	 * @return true, the next poll in a reply is a directive, like http's X-Next-Poll.
+	 */
+	@Override
+	public boolean isPollDelayDirected() {
+		return true;
+	}
+	
+	/**
+	 * Sets how long, in milliseconds, to wait for the first reply.  Each retry waits twice as long as the last.
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+	
+	/**
+	 * Sets the number of times to send the request before giving up.
+	 */
+	public void setAttempts(int attempts) {
+		this.attempts = attempts;
+	}
+}
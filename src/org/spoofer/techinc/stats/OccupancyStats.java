@@ -0,0 +1,319 @@
+package org.spoofer.techinc.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.TimeZone;
+
+/**
+ * Occupancy Stats are the running statistics of the space's state, updated with each state the engine decides on
+ * and never rescanning the history:
+ *
+ * the time observed and the time open in each hour of the week, giving the chance the space is open then,
+ * the lengths of open sessions, as median and 90th percentile sketches,
+ * and the number of openings and closings, in total and in each hour of the week.
+ *
+ * Time between two updates is counted as being in the earlier state, unless the gap is longer than the largest gap,
+ * when the engine was most likely not running, and it is not counted at all.  Hours are in the local time zone.
+ *
+ * Memory is constant, updates are O(1) for a bounded gap and every query is O(1).
+ * The statistics are written in a compact binary form, of a few kilobytes, so they survive restarts.
+ *
+ * @author rob gilham
+ *
+ */
+public class OccupancyStats {
+
+	public static final int HOURS_PER_WEEK = 7 * 24;
+
+	public static final double QUANTILE_MEDIAN = 0.5;
+	public static final double QUANTILE_90 = 0.9;
+
+	public static final long DEFAULT_MAX_GAP = 2 * 60 * 60 * 1000;	// Twice the longest default poll delay
+
+	private static final int VERSION = 1;
+	private static final long HOUR = 60 * 60 * 1000;
+	private static final int EPOCH_HOUR_OF_WEEK = 3 * 24;	// The epoch fell on a Thursday, and the week starts on a Monday
+
+	private static final int STATE_UNKNOWN = -1;
+
+
+	private final TimeZone timeZone;
+	private long maxGap = DEFAULT_MAX_GAP;
+
+	private final int[] observedSeconds = new int[HOURS_PER_WEEK];
+	private final int[] openSeconds = new int[HOURS_PER_WEEK];
+	private final int[] openings = new int[HOURS_PER_WEEK];
+	private final int[] closings = new int[HOURS_PER_WEEK];
+	private long totalOpenings = 0;
+	private long totalClosings = 0;
+
+	private final QuantileSketch medianSession = new QuantileSketch(QUANTILE_MEDIAN);
+	private final QuantileSketch longSession = new QuantileSketch(QUANTILE_90);
+	private long sessions = 0;
+	private long sessionSeconds = 0;
+
+	private int lastState = STATE_UNKNOWN;
+	private long lastUpdate = 0;
+	private long sessionStart = 0;	// Time the current open session started, zero if not open or its start is unknown
+
+
+	public OccupancyStats() {
+		this(TimeZone.getDefault());
+	}
+
+	/**
+	 * @param timeZone the zone whose hours the statistics are kept in.
+	 */
+	public OccupancyStats(TimeZone timeZone) {
+		this.timeZone = timeZone;
+	}
+
+
+	/**
+	 * Updates the statistics with the state decided on at the given time.
+	 *
+	 * @param open the state, true if the space is open.
+	 * @param now the time of the decision in milliseconds.
+	 * @return true if the state changed since the last update.
+	 */
+	public synchronized boolean update(boolean open, long now) {
+		int state = open ? 1 : 0;
+		long gap = now - lastUpdate;
+		boolean observed = STATE_UNKNOWN != lastState && gap >= 0 && gap <= maxGap;
+
+		if (observed)
+			addTime(lastUpdate, now, 1 == lastState);
+		else
+			sessionStart = 0;	// Missed the start of any session open now
+
+		boolean changed = STATE_UNKNOWN != lastState && state != lastState;
+		if (changed) {
+			int hour = getHourOfWeek(now);
+			if (open) {
+				openings[hour]++;
+				totalOpenings++;
+				sessionStart = observed ? now : 0;
+			} else {
+				closings[hour]++;
+				totalClosings++;
+				if (0 != sessionStart)
+					addSession((now - sessionStart) / 1000);
+				sessionStart = 0;
+			}
+		}
+
+		lastState = state;
+		lastUpdate = now;
+		return changed;
+	}
+
+
+	/**
+	 * Gets the chance the space is open in the given hour of the week, from the time it has been seen open then.
+	 *
+	 * @param dayOfWeek the day, as Calendar.MONDAY to Calendar.SUNDAY.
+	 * @param hour the hour of the day, 0 to 23.
+	 * @return the chance, from 0 to 1, or NaN if the hour has never been observed.
+	 */
+	public synchronized double getOpenProbability(int dayOfWeek, int hour) {
+		int index = indexOf(dayOfWeek, hour);
+		return 0 == observedSeconds[index] ? Double.NaN : openSeconds[index] / (double)observedSeconds[index];
+	}
+
+	/**
+	 * Gets the chance the space is open over a span of hours of a day, such as Tuesday evenings from 18 to 24.
+	 *
+	 * @param dayOfWeek the day, as Calendar.MONDAY to Calendar.SUNDAY.
+	 * @param fromHour the first hour, 0 to 23.
+	 * @param toHour the hour after the last, 1 to 24.
+	 * @return the chance, from 0 to 1, or NaN if none of the hours have been observed.
+	 */
+	public synchronized double getOpenProbability(int dayOfWeek, int fromHour, int toHour) {
+		if (toHour <= fromHour || toHour > 24)
+			throw new IllegalArgumentException("Invalid hours " + fromHour + " to " + toHour);
+
+		int first = indexOf(dayOfWeek, fromHour);
+		long observed = 0, open = 0;
+		for (int i = first; i < first + toHour - fromHour; i++) {
+			observed += observedSeconds[i];
+			open += openSeconds[i];
+		}
+		return 0 == observed ? Double.NaN : open / (double)observed;
+	}
+
+	/**
+	 * Gets the estimated length of an open session.
+	 *
+	 * @param quantile QUANTILE_MEDIAN or QUANTILE_90, the only quantiles kept.
+	 * @return the length in seconds, or NaN if no session has been seen from start to end.
+	 */
+	public synchronized double getSessionLength(double quantile) {
+		if (QUANTILE_MEDIAN == quantile)
+			return medianSession.getQuantile();
+		if (QUANTILE_90 == quantile)
+			return longSession.getQuantile();
+
+		throw new IllegalArgumentException("Quantile " + quantile + " is not kept");
+	}
+
+	/**
+	 * @return the mean length of an open session in seconds, or NaN if no session has been seen from start to end.
+	 */
+	public synchronized double getMeanSessionLength() {
+		return 0 == sessions ? Double.NaN : sessionSeconds / (double)sessions;
+	}
+
+	/**
+	 * @return the number of open sessions seen from start to end.
+	 */
+	public synchronized long getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * Gets the number of times the space opened in the given hour of the week.
+	 *
+	 * @param dayOfWeek the day, as Calendar.MONDAY to Calendar.SUNDAY.
+	 * @param hour the hour of the day, 0 to 23.
+	 */
+	public synchronized int getOpenings(int dayOfWeek, int hour) {
+		return openings[indexOf(dayOfWeek, hour)];
+	}
+
+	/**
+	 * Gets the number of times the space closed in the given hour of the week.
+	 *
+	 * @param dayOfWeek the day, as Calendar.MONDAY to Calendar.SUNDAY.
+	 * @param hour the hour of the day, 0 to 23.
+	 */
+	public synchronized int getClosings(int dayOfWeek, int hour) {
+		return closings[indexOf(dayOfWeek, hour)];
+	}
+
+	public synchronized long getTotalOpenings() {
+		return totalOpenings;
+	}
+
+	public synchronized long getTotalClosings() {
+		return totalClosings;
+	}
+
+	/**
+	 * @return the time of the last update in milliseconds, or zero if never updated.
+	 */
+	public synchronized long getLastUpdate() {
+		return lastUpdate;
+	}
+
+	/**
+	 * Sets the longest gap between updates which is counted as observed time.
+	 * Should be longer than the longest poll delay.
+	 *
+	 * @param maxGap the gap in milliseconds.
+	 */
+	public synchronized void setMaxGap(long maxGap) {
+		if (maxGap < 1)
+			throw new IllegalArgumentException("maxGap must be positive");
+		this.maxGap = maxGap;
+	}
+
+
+	/**
+	 * Writes the statistics, counts as variable length numbers so most take a byte or two.
+	 */
+	public synchronized void write(DataOutput out) throws IOException {
+		out.writeByte(VERSION);
+		out.writeByte(lastState);
+		out.writeLong(lastUpdate);
+		out.writeLong(sessionStart);
+
+		writeCounts(out, observedSeconds);
+		writeCounts(out, openSeconds);
+		writeCounts(out, openings);
+		writeCounts(out, closings);
+		Varint.write(out, totalOpenings);
+		Varint.write(out, totalClosings);
+
+		Varint.write(out, sessions);
+		Varint.write(out, sessionSeconds);
+		medianSession.write(out);
+		longSession.write(out);
+	}
+
+	/**
+	 * Replaces the statistics with those written by write.
+	 *
+	 * @throws IOException if the statistics can not be read or were written by a different version.
+	 */
+	public synchronized void read(DataInput in) throws IOException {
+		int version = in.readByte();
+		if (VERSION != version)
+			throw new IOException("Unknown statistics version " + version);
+
+		lastState = in.readByte();
+		lastUpdate = in.readLong();
+		sessionStart = in.readLong();
+
+		readCounts(in, observedSeconds);
+		readCounts(in, openSeconds);
+		readCounts(in, openings);
+		readCounts(in, closings);
+		totalOpenings = Varint.read(in);
+		totalClosings = Varint.read(in);
+
+		sessions = Varint.read(in);
+		sessionSeconds = Varint.read(in);
+		medianSession.read(in);
+		longSession.read(in);
+	}
+
+
+	private void addSession(long seconds) {
+		sessions++;
+		sessionSeconds += seconds;
+		medianSession.add(seconds);
+		longSession.add(seconds);
+	}
+
+	/**
+	 * Adds the time from 'from' to 'to' to each hour of the week it covers, as open or closed.
+	 */
+	private void addTime(long from, long to, boolean open) {
+		while (from < to) {
+			long hourEnd = (from + timeZone.getOffset(from)) / HOUR * HOUR + HOUR - timeZone.getOffset(from);
+			long end = Math.min(to, hourEnd);
+			int seconds = (int)((end - from) / 1000);
+
+			int hour = getHourOfWeek(from);
+			observedSeconds[hour] += seconds;
+			if (open)
+				openSeconds[hour] += seconds;
+			from = end;
+		}
+	}
+
+	private int getHourOfWeek(long time) {
+		long hours = (time + timeZone.getOffset(time)) / HOUR;
+		return (int)((hours + EPOCH_HOUR_OF_WEEK) % HOURS_PER_WEEK);
+	}
+
+	private static int indexOf(int dayOfWeek, int hour) {
+		if (dayOfWeek < Calendar.SUNDAY || dayOfWeek > Calendar.SATURDAY || hour < 0 || hour > 23)
+			throw new IllegalArgumentException("Invalid day " + dayOfWeek + " or hour " + hour);
+
+		int day = (dayOfWeek + 5) % 7;	// Monday is 0, Sunday 6
+		return day * 24 + hour;
+	}
+
+	private static void writeCounts(DataOutput out, int[] counts) throws IOException {
+		for (int count : counts)
+			Varint.write(out, count);
+	}
+
+	private static void readCounts(DataInput in, int[] counts) throws IOException {
+		for (int i = 0; i < counts.length; i++)
+			counts[i] = (int)Varint.read(in);
+	}
+}
@@ -0,0 +1,117 @@
+package org.spoofer.techinc.stats;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import android.content.Context;
+import android.util.Log;
+
+/**
+ * The Occupancy Store holds the application's OccupancyStats, in memory and in a private file so they survive restarts.
+ * The statistics are saved when the state changes and at most every SAVE_INTERVAL otherwise,
+ * so the steady state poll costs no disk writes.  A save writes a new file and renames it over the old.
+ *
+ * @author rob gilham
+ *
+ */
+public class OccupancyStore {
+
+	private static final String LOG_TAG = OccupancyStore.class.getSimpleName();
+
+	private static final String STATS_FILENAME = "occupancy.stats";
+	private static final long SAVE_INTERVAL = 15 * 60 * 1000;
+
+	private static OccupancyStore instance;
+
+
+	private final File file;
+	private OccupancyStats stats = new OccupancyStats();
+	private long saved = 0;	// Time of the last update saved
+
+
+	/**
+	 * Gets the store shared by the application, loading the statistics the first time.
+	 */
+	public static synchronized OccupancyStore getInstance(Context context) {
+		if (null == instance)
+			instance = new OccupancyStore(new File(context.getApplicationContext().getFilesDir(), STATS_FILENAME));
+		return instance;
+	}
+
+	/**
+	 * @param file the file holding the statistics, which need not exist yet.
+	 */
+	public OccupancyStore(File file) {
+		this.file = file;
+		load();
+	}
+
+
+	/**
+	 * Updates the statistics with the state decided on, saving them if the state changed or they have not been saved for a while.
+	 *
+	 * @param open the state, true if the space is open.
+	 * @param now the time of the decision in milliseconds.
+	 */
+	public synchronized void update(boolean open, long now) {
+		boolean changed = stats.update(open, now);
+		if (changed || now - saved >= SAVE_INTERVAL || now < saved)
+			save();
+	}
+
+	/**
+	 * Gets the statistics, whose queries may be called from any thread.
+	 */
+	public OccupancyStats getStats() {
+		return stats;
+	}
+
+
+	/**
+	 * Saves the statistics now.  Failures are logged, and the statistics are kept in memory.
+	 */
+	public synchronized void save() {
+		File temp = new File(file.getPath() + ".new");
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try {
+				stats.write(out);
+			} finally {
+				out.close();
+			}
+
+			if (!temp.renameTo(file))
+				throw new IOException("Failed to rename " + temp + " to " + file);
+			saved = stats.getLastUpdate();
+
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Failed to save occupancy statistics. " + e.getMessage());
+		}
+	}
+
+	private void load() {
+		if (!file.exists())
+			return;
+
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				OccupancyStats loaded = new OccupancyStats();
+				loaded.read(in);
+				stats = loaded;
+				saved = stats.getLastUpdate();
+			} finally {
+				in.close();
+			}
+
+		} catch (IOException e) {
+			Log.w(LOG_TAG, "Failed to load occupancy statistics, starting again. " + e.getMessage());
+		}
+	}
+}
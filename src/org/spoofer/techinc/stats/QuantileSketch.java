@@ -0,0 +1,165 @@
+package org.spoofer.techinc.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A Quantile Sketch estimates a single quantile, such as the median, of a stream of values in constant memory,
+ * using the P-square algorithm of Jain and Chlamtac.
+ * Five markers track the minimum, the maximum, the quantile and the points half way to it on either side,
+ * and each value moves them with a parabolic, or failing that linear, adjustment.
+ * The first five values are kept as they are, so small counts are exact.
+ *
+ * Adding a value and reading the estimate are both O(1).
+ *
+ * @author rob gilham
+ *
+ */
+public class QuantileSketch {
+
+	private static final int MARKERS = 5;
+
+	private final double quantile;
+
+	private final double[] heights = new double[MARKERS];
+	private final int[] positions = { 0, 1, 2, 3, 4 };
+	private final double[] desired = new double[MARKERS];
+	private final double[] increments = new double[MARKERS];
+	private long count = 0;
+
+
+	/**
+	 * @param quantile the quantile to estimate, between 0 and 1 exclusive.  0.5 is the median.
+	 */
+	public QuantileSketch(double quantile) {
+		if (quantile <= 0 || quantile >= 1)
+			throw new IllegalArgumentException("quantile must be between 0 and 1");
+
+		this.quantile = quantile;
+		increments[1] = quantile / 2;
+		increments[2] = quantile;
+		increments[3] = (1 + quantile) / 2;
+		increments[4] = 1;
+		setDesired();
+	}
+
+
+	public void add(double value) {
+		if (count < MARKERS) {
+			heights[(int)count++] = value;
+			if (count == MARKERS)
+				Arrays.sort(heights);
+			return;
+		}
+		count++;
+
+		int cell;
+		if (value < heights[0]) {
+			heights[0] = value;
+			cell = 0;
+		} else if (value >= heights[MARKERS - 1]) {
+			heights[MARKERS - 1] = value;
+			cell = MARKERS - 2;
+		} else {
+			cell = 0;
+			while (value >= heights[cell + 1])
+				cell++;
+		}
+
+		for (int i = cell + 1; i < MARKERS; i++)
+			positions[i]++;
+		for (int i = 0; i < MARKERS; i++)
+			desired[i] += increments[i];
+
+		for (int i = 1; i < MARKERS - 1; i++)
+			adjust(i);
+	}
+
+	/**
+	 * Gets the estimated quantile of the values added.
+	 *
+	 * @return the estimate, or NaN if nothing has been added.
+	 */
+	public double getQuantile() {
+		if (count >= MARKERS)
+			return heights[2];
+		if (count == 0)
+			return Double.NaN;
+
+		double[] values = new double[(int)count];
+		System.arraycopy(heights, 0, values, 0, values.length);
+		Arrays.sort(values);
+		return values[(int)Math.min(count - 1, (long)(quantile * count))];
+	}
+
+	public double getTarget() {
+		return quantile;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+
+	/**
+	 * Writes the sketch.  The desired marker positions follow from the count, so are not written.
+	 */
+	public void write(DataOutput out) throws IOException {
+		Varint.write(out, count);
+		for (int i = 0; i < MARKERS; i++)
+			out.writeDouble(heights[i]);
+		for (int i = 1; i < MARKERS - 1; i++)
+			Varint.write(out, positions[i]);
+	}
+
+	/**
+	 * Reads a sketch written by write, which must have been for the same quantile.
+	 */
+	public void read(DataInput in) throws IOException {
+		count = Varint.read(in);
+		for (int i = 0; i < MARKERS; i++)
+			heights[i] = in.readDouble();
+		for (int i = 1; i < MARKERS - 1; i++)
+			positions[i] = (int)Varint.read(in);
+		positions[MARKERS - 1] = (int)Math.max(MARKERS - 1, count - 1);
+		setDesired();
+	}
+
+
+	private void setDesired() {
+		long added = Math.max(0, count - MARKERS);
+		desired[0] = 0;
+		desired[1] = 2 * quantile + added * increments[1];
+		desired[2] = 4 * quantile + added * increments[2];
+		desired[3] = 2 + 2 * quantile + added * increments[3];
+		desired[4] = 4 + added;
+	}
+
+	private void adjust(int i) {
+		double offset = desired[i] - positions[i];
+		int d;
+		if (offset >= 1 && positions[i + 1] - positions[i] > 1)
+			d = 1;
+		else if (offset <= -1 && positions[i - 1] - positions[i] < -1)
+			d = -1;
+		else
+			return;
+
+		double height = parabolic(i, d);
+		if (heights[i - 1] < height && height < heights[i + 1])
+			heights[i] = height;
+		else
+			heights[i] += d * (heights[i + d] - heights[i]) / (positions[i + d] - positions[i]);
+		positions[i] += d;
+	}
+
+	private double parabolic(int i, int d) {
+		double below = positions[i] - positions[i - 1];
+		double above = positions[i + 1] - positions[i];
+		return heights[i] + d / (double)(positions[i + 1] - positions[i - 1])
+				* ((below + d) * (heights[i + 1] - heights[i]) / above
+				+ (above - d) * (heights[i] - heights[i - 1]) / below);
+	}
+}
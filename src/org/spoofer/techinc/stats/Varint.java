@@ -0,0 +1,41 @@
+package org.spoofer.techinc.stats;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Writes non negative numbers in seven bit groups, low group first, with the top bit set on every byte but the last.
+ * Small counts, which most of the statistics are, take a single byte.
+ * 
+ * @author rob gilham
+ *
+ */
+final class Varint {
+
+	private Varint() {
+	}
+	
+	
+	static void write(DataOutput out, long value) throws IOException {
+		if (value < 0)
+			throw new IllegalArgumentException("value can not be negative");
+		
+		while (value > 0x7f) {
+			out.writeByte((int)(value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int)value);
+	}
+	
+	static long read(DataInput in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (long)(b & 0x7f) << shift;
+			if (0 == (b & 0x80))
+				return value;
+		}
+		throw new IOException("Invalid number, too long");
+	}
+}
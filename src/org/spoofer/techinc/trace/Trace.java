@@ -0,0 +1,53 @@
+package org.spoofer.techinc.trace;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Trace is the always on, global, event trace of the engine.
+ * Events are recorded into an in memory TraceBuffer until the engine maps the trace onto a file,
+ * after which they are kept across restarts.
+ * 
+ * @author rob gilham
+ *
+ */
+public final class Trace {
+
+	public static final int DEFAULT_CAPACITY = 1024;  // Records kept, at 24 bytes each
+	
+	private static volatile TraceBuffer buffer = new TraceBuffer(DEFAULT_CAPACITY);
+	private static File mappedFile;
+	
+	
+	private Trace() {
+	}
+	
+
+	public static void event(TraceEvent event) {
+		buffer.record(event, 0);
+	}
+	
+	public static void event(TraceEvent event, int arg) {
+		buffer.record(event, arg);
+	}
+
+	
+	/**
+	 * Moves the trace onto the given file, so it survives the process being restarted.
+	 * Does nothing if the trace is already mapped onto the file.
+	 * 
+	 * @param file the file to hold the trace.
+	 * @throws IOException if the file can not be mapped.  The trace carries on in memory.
+	 */
+	public static synchronized void map(File file) throws IOException {
+		if (file.equals(mappedFile))
+			return;
+		
+		buffer = TraceBuffer.map(file, DEFAULT_CAPACITY);
+		mappedFile = file;
+	}
+	
+	public static TraceBuffer getBuffer() {
+		return buffer;
+	}
+}
@@ -0,0 +1,212 @@
+package org.spoofer.techinc.trace;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Trace Buffer is a fixed size ring of binary event records.
+ * Writers claim a slot with a single atomic increment and write the record with absolute puts, so recording never locks
+ * and never allocates.  Once the ring is full the oldest records are overwritten.
+ * 
+ * The buffer may be held in memory or mapped onto a file, in which case the trace survives the process being killed
+ * and is picked up again when the file is next mapped.
+ * 
+ * Layout:  A 32 byte header of magic, version, capacity and record size, followed by 'capacity' records, each holding
+ * the sequence number, time in nanoseconds since the epoch, event code and argument.
+ * The sequence number is written inverted before the record and again once it is complete, so readers can spot a record
+ * that was being written when it was read.
+ * 
+ * @author rob gilham
+ *
+ */
+public class TraceBuffer {
+
+	static final int MAGIC = 0x54524345;  // "TRCE"
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 32;
+	static final int RECORD_SIZE = 24;
+	
+	private static final int OFFSET_TIME = 8;
+	private static final int OFFSET_CODE = 16;
+	private static final int OFFSET_ARG = 20;
+	
+	
+	private final ByteBuffer buffer;
+	private final int capacity;
+	private final int mask;
+	private final AtomicLong cursor;
+	
+	// Offset added to System.nanoTime() to give nanoseconds since the epoch
+	private final long clockOffset;
+	
+	
+	/**
+	 * Creates a new, empty, in memory trace buffer.
+	 * 
+	 * @param capacity the number of records held.  Must be a power of two.
+	 */
+	public TraceBuffer(int capacity) {
+		this(ByteBuffer.allocateDirect(sizeOf(capacity)), capacity);
+	}
+	
+	private TraceBuffer(ByteBuffer buffer, int capacity) {
+		this.buffer = buffer;
+		this.capacity = capacity;
+		this.mask = capacity - 1;
+		this.clockOffset = System.currentTimeMillis() * 1000000L - System.nanoTime();
+		
+		long next = 0;
+		if (isValidHeader(buffer, capacity)) {
+			for (TraceRecord record : read(buffer))
+				next = Math.max(next, record.getSequence() + 1);
+		} else {
+			clear(buffer, capacity);
+		}
+		cursor = new AtomicLong(next);
+	}
+	
+	
+	/**
+	 * Maps a trace buffer onto the given file.
+	 * If the file already holds a trace of the same capacity, new records carry on from where it left off,
+	 * otherwise the file is (re)created empty.
+	 * 
+	 * @param file the file to hold the trace
+	 * @param capacity the number of records held.  Must be a power of two.
+	 * @return the mapped trace buffer
+	 * @throws IOException if the file can not be created or mapped.
+	 */
+	public static TraceBuffer map(File file, int capacity) throws IOException {
+		int size = sizeOf(capacity);
+		
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.setLength(size);
+			ByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+			return new TraceBuffer(mapped, capacity);
+		
+		} finally {
+			raf.close();
+		}
+	}
+	
+	
+	/**
+	 * Records an event into the trace.
+	 * Safe to call from any thread.
+	 * 
+	 * @param event the event to record
+	 * @param arg an event specific argument
+	 */
+	public void record(TraceEvent event, int arg) {
+		long time = System.nanoTime() + clockOffset;
+		long seq = cursor.getAndIncrement();
+		int pos = HEADER_SIZE + (int)(seq & mask) * RECORD_SIZE;
+		
+		buffer.putLong(pos, ~seq);
+		buffer.putLong(pos + OFFSET_TIME, time);
+		buffer.putInt(pos + OFFSET_CODE, event.ordinal());
+		buffer.putInt(pos + OFFSET_ARG, arg);
+		buffer.putLong(pos, seq);
+	}
+	
+	
+	/**
+	 * Gets the number of records held in the buffer.
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * Gets the number of records written into the buffer, including those since overwritten.
+	 */
+	public long getCount() {
+		return cursor.get();
+	}
+	
+	/**
+	 * Takes a copy of the complete records currently in the buffer, oldest first.
+	 */
+	public List<TraceRecord> snapshot() {
+		return read(buffer);
+	}
+	
+	/**
+	 * Copies the raw trace, header and records, into the given array, ready to be written out and decoded with TraceDump.
+	 */
+	public byte[] toByteArray() {
+		ByteBuffer copy = buffer.duplicate();
+		copy.clear();
+		byte[] bytes = new byte[copy.remaining()];
+		copy.get(bytes);
+		return bytes;
+	}
+	
+	
+	
+	/**
+	 * Decodes the complete records from a raw trace, oldest first.
+	 * Records which were part way through being written are skipped.
+	 * 
+	 * @param trace the raw trace, as written by a TraceBuffer
+	 * @return the list of records, in sequence order.
+	 * @throws IllegalArgumentException if the trace does not have a valid header.
+	 */
+	public static List<TraceRecord> read(ByteBuffer trace) throws IllegalArgumentException {
+		if (trace.capacity() < HEADER_SIZE || MAGIC != trace.getInt(0) || VERSION != trace.getInt(4)) 
+			throw new IllegalArgumentException("Not a trace file");
+		
+		int capacity = trace.getInt(8);
+		if (trace.capacity() < sizeOf(capacity))
+			throw new IllegalArgumentException("Trace file is truncated");
+		
+		List<TraceRecord> records = new ArrayList<TraceRecord>(capacity);
+		for (int slot = 0; slot < capacity; slot++) {
+			int pos = HEADER_SIZE + slot * RECORD_SIZE;
+			
+			long seq = trace.getLong(pos);
+			long time = trace.getLong(pos + OFFSET_TIME);
+			int code = trace.getInt(pos + OFFSET_CODE);
+			int arg = trace.getInt(pos + OFFSET_ARG);
+			
+			if (seq < 0 || seq != trace.getLong(pos) || (seq & (capacity - 1)) != slot || 0 == time)
+				continue;  // empty, or being written
+			
+			records.add(new TraceRecord(seq, time, code, arg));
+		}
+		Collections.sort(records);
+		return records;
+	}
+	
+	
+	static int sizeOf(int capacity) {
+		if (capacity <= 0 || 0 != (capacity & (capacity - 1)))
+			throw new IllegalArgumentException("Trace capacity must be a power of two, not " + capacity);
+		
+		return HEADER_SIZE + capacity * RECORD_SIZE;
+	}
+	
+	private static boolean isValidHeader(ByteBuffer buffer, int capacity) {
+		return MAGIC == buffer.getInt(0) && VERSION == buffer.getInt(4) 
+				&& capacity == buffer.getInt(8) && RECORD_SIZE == buffer.getInt(12);
+	}
+	
+	private static void clear(ByteBuffer buffer, int capacity) {
+		int size = sizeOf(capacity);
+		for (int pos = 0; pos < size; pos += 8)
+			buffer.putLong(pos, 0);
+		
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, capacity);
+		buffer.putInt(12, RECORD_SIZE);
+	}
+}
@@ -0,0 +1,85 @@
+package org.spoofer.techinc.trace;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Trace Dump decodes a trace file into a readable timeline.
+ * Each line shows the wall clock time of the event, the time since the previous event, the event and its argument.
+ * 
+ * Pull the trace from the device, then compile and run on the desktop, as the trace classes need nothing from Android:
+ * 	adb pull /data/data/org.spoofer.techinc/files/engine.trace
+ * 	javac -d /tmp/techinc-trace -sourcepath src src/org/spoofer/techinc/trace/TraceDump.java
+ * 	java -cp /tmp/techinc-trace org.spoofer.techinc.trace.TraceDump engine.trace
+ * 
+ * @author rob gilham
+ *
+ */
+public class TraceDump {
+
+	public static void main(String[] args) {
+		if (args.length < 1) {
+			System.err.println("usage: TraceDump <trace file>");
+			System.exit(1);
+		}
+		
+		try {
+			dump(read(new File(args[0])), System.out);
+			
+		} catch (IOException e) {
+			System.err.println("Failed to read trace " + args[0] + ": " + e.getMessage());
+			System.exit(1);
+			
+		} catch (IllegalArgumentException e) {
+			System.err.println(args[0] + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+	
+	
+	/**
+	 * Reads and decodes the given trace file.
+	 */
+	public static List<TraceRecord> read(File file) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			FileChannel channel = in.getChannel();
+			ByteBuffer trace = ByteBuffer.allocate((int)channel.size());
+			while (trace.hasRemaining() && channel.read(trace) >= 0)
+				;
+			return TraceBuffer.read(trace);
+			
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Writes the given records out as a timeline.
+	 */
+	public static void dump(List<TraceRecord> records, PrintStream out) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+		long previous = 0;
+		
+		for (TraceRecord record : records) {
+			long time = record.getTime();
+			String date = format.format(new Date(time / 1000000L));
+			String micros = String.format("%03d", (time / 1000L) % 1000L);
+			String delta = 0 == previous ? "" : String.format("+%.3fms", (time - previous) / 1000000.0);
+			
+			TraceEvent event = record.getEvent();
+			String name = null != event ? event.name() : "UNKNOWN(" + record.getCode() + ")";
+			
+			out.println(String.format("%8d  %s%s  %14s  %-12s %d", record.getSequence(), date, micros, delta, name, record.getArg()));
+			previous = time;
+		}
+		out.println(records.size() + " events");
+	}
+}
@@ -0,0 +1,37 @@
+package org.spoofer.techinc.trace;
+
+/**
+ * The events recorded into the engine trace.
+ * The ordinal of each event is written into the trace, so new events must only ever be added to the end.
+ * 
+ * @author rob gilham
+ *
+ */
+public enum TraceEvent {
+	
+	ALARM,			// Engine started, arg is 1 when started by the poll alarm, 0 otherwise
+	WORKER_START,	// Worker thread started
+	CONNECT,		// Connection being opened to the poll URL
+	RESPONSE,		// Response read, arg is the number of characters read
+	PARSE,			// Response parsed, arg is the state, 1 = open, 0 = closed
+	DECISION,		// Notification decision, arg is the state, plus 2 if the state changed
+	NOTIFY,			// Notification posted, arg is the state, 2 for a message, or -1 when removed
+	SCHEDULE,		// Next poll scheduled, arg is the delay in seconds
+	STOP,			// Engine stopped
+	ERROR,			// Poll failed
+	DEFERRED,		// Poll refused by the request budget, arg is the delay in seconds
+	PREFETCH;		// Open page prefetched, arg is its size in bytes, or -1 if the fetch failed
+	
+	
+	private static final TraceEvent[] EVENTS = values();
+	
+	/**
+	 * Gets the event for the given code, as written into the trace.
+	 * 
+	 * @param code the code of the event
+	 * @return the event, or null if the code is unknown.
+	 */
+	public static TraceEvent fromCode(int code) {
+		return code >= 0 && code < EVENTS.length ? EVENTS[code] : null;
+	}
+}
@@ -0,0 +1,63 @@
+package org.spoofer.techinc.trace;
+
+/**
+ * A single decoded entry from a trace.
+ * 
+ * @author rob gilham
+ *
+ */
+public class TraceRecord implements Comparable<TraceRecord> {
+	
+	private final long sequence;
+	private final long time;
+	private final int code;
+	private final int arg;
+	
+	
+	public TraceRecord(long sequence, long time, int code, int arg) {
+		this.sequence = sequence;
+		this.time = time;
+		this.code = code;
+		this.arg = arg;
+	}
+
+	/**
+	 * @return the position of the record in the trace, starting at zero.
+	 */
+	public long getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return the time the event was recorded, in nanoseconds since the epoch.
+	 */
+	public long getTime() {
+		return time;
+	}
+
+	/**
+	 * @return the recorded event or null if the code is not a known event.
+	 */
+	public TraceEvent getEvent() {
+		return TraceEvent.fromCode(code);
+	}
+	
+	public int getCode() {
+		return code;
+	}
+
+	public int getArg() {
+		return arg;
+	}
+
+	@Override
+	public int compareTo(TraceRecord other) {
+		return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+	}
+	
+	@Override
+	public String toString() {
+		TraceEvent event = getEvent();
+		return sequence + " " + (null != event ? event.name() : "UNKNOWN(" + code + ")") + " " + arg;
+	}
+}
@@ -0,0 +1,92 @@
+package org.spoofer.techinc.load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear histogram of latencies in microseconds.
+ * Values below 32 are counted exactly, above that each power of two is split into 16 buckets,
+ * so any recorded value is reported to within about 6%.
+ * Recording is lock free and safe from any thread.
+ * 
+ * @author rob gilham
+ *
+ */
+public class LatencyHistogram {
+
+	private static final int LINEAR_BUCKETS = 32;
+	private static final int SUB_BUCKETS = 16;
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int MAGNITUDES = 40;	// Up to 2^44 microseconds, many days
+	
+	private final AtomicLongArray counts = new AtomicLongArray(LINEAR_BUCKETS + MAGNITUDES * SUB_BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+	
+	
+	/**
+	 * Records a single latency.
+	 * @param micros the latency in microseconds.  Negative values are counted as zero.
+	 */
+	public void record(long micros) {
+		if (micros < 0)
+			micros = 0;
+		
+		counts.incrementAndGet(indexOf(micros));
+		count.incrementAndGet();
+		
+		long current;
+		while (micros > (current = max.get()) && !max.compareAndSet(current, micros))
+			;
+	}
+
+	public long getCount() {
+		return count.get();
+	}
+	
+	public long getMax() {
+		return max.get();
+	}
+	
+	/**
+	 * Gets the latency below which the given percentage of the recorded latencies fall.
+	 * 
+	 * @param percentile the percentile, from 0 to 100.
+	 * @return the latency in microseconds, or zero if nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long total = count.get();
+		if (total == 0)
+			return 0;
+		
+		long target = Math.max(1, (long)Math.ceil(percentile / 100.0 * total));
+		long seen = 0;
+		for (int index = 0; index < counts.length(); index++) {
+			seen += counts.get(index);
+			if (seen >= target)
+				return Math.min(highestValueOf(index), max.get());
+		}
+		return max.get();
+	}
+	
+	
+	static int indexOf(long value) {
+		if (value < LINEAR_BUCKETS)
+			return (int)value;
+		
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		int sub = (int)(value >>> shift) - SUB_BUCKETS;
+		int index = LINEAR_BUCKETS + (shift - 1) * SUB_BUCKETS + sub;
+		
+		return Math.min(index, LINEAR_BUCKETS + MAGNITUDES * SUB_BUCKETS - 1);
+	}
+	
+	static long highestValueOf(int index) {
+		if (index < LINEAR_BUCKETS)
+			return index;
+		
+		int shift = (index - LINEAR_BUCKETS) / SUB_BUCKETS + 1;
+		long sub = (index - LINEAR_BUCKETS) % SUB_BUCKETS + SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+}
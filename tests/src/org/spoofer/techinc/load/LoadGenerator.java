@@ -0,0 +1,328 @@
+package org.spoofer.techinc.load;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.spoofer.techinc.state.AsyncPreviewClient;
+import org.spoofer.techinc.state.PreviewCallback;
+import org.spoofer.techinc.state.StateReader;
+
+/**
+ * The Load Generator polls a state URL at a fixed arrival rate, to find out how many clients a status server can take.
+ * 
+ * The load is open loop: requests are started on schedule whether or not earlier ones have finished, as thousands of
+ * independent devices would.  Every request is made through an AsyncPreviewClient, over non blocking sockets sharing a
+ * single I/O thread, so tens of thousands of requests can be in flight at once without a thread for each.
+ * Each body is read into a StateReader, just as the engine reads a poll, so a response which the engine could not make a
+ * state of is counted as an unparseable status, not a success, however healthy its status code.
+ * Latency is measured from when each request was due to start, not when it actually started, so the time spent waiting behind
+ * a slow server is counted (correcting for coordinated omission).  The service time, from the actual start, is reported alongside.
+ * 
+ * A run which does not hear back from every request in time is reported as incomplete, and main exits with an error.
+ * 
+ * Usage:
+ * 	java -cp bin/classes:tests/bin/classes org.spoofer.techinc.load.LoadGenerator [options] <url | local>
+ * 		--rate=n		requests per second (default 100), or
+ * 		--clients=n		number of simulated devices, with --interval=s the poll interval of each in seconds (default 180)
+ * 		--duration=s	length of the run in seconds (default 30)
+ * 		--timeout=ms	time allowed for each request (default 10000)
+ * 		--poisson		use random, Poisson arrivals rather than evenly spaced
+ * 
+ * Only http URLs are supported.  'local' starts a LocalStateServer on the loopback interface and runs against that.
+ * As the client logs through android.util.Log, run it on a device or emulator, or on the desktop with an implementation of
+ * android.util.Log on the classpath.  TestLoadGenerator runs a short load against the local server.
+ * 
+ * @author rob gilham
+ *
+ */
+public class LoadGenerator {
+
+	/**
+	 * The error counted when a response is read but its body is not a state.
+	 */
+	public static final String UNPARSEABLE = "unparseable status";
+	
+	private final String url;
+	private final double rate;
+	private final long duration;
+	private final int timeout;
+	private final boolean poisson;
+	
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram serviceTime = new LatencyHistogram();
+	private final AtomicLong succeeded = new AtomicLong();
+	private final Map<String, AtomicLong> errors = new ConcurrentHashMap<String, AtomicLong>();
+	private final Object finished = new Object();
+	private StateReader parser;	// Only used on the client's I/O thread
+	private long completed;	// Guarded by finished
+	private long sent;
+	private long elapsed;
+	private boolean complete;
+	
+	
+	/**
+	 * @param url the state URL to poll
+	 * @param rate the number of requests to start each second
+	 * @param duration the length of the run in milliseconds
+	 * @param timeout the time allowed for each request, in milliseconds
+	 * @param poisson true to space requests randomly, false to space them evenly
+	 */
+	public LoadGenerator(String url, double rate, long duration, int timeout, boolean poisson) {
+		if (rate <= 0 || duration <= 0 || timeout <= 0)
+			throw new IllegalArgumentException("rate, duration and timeout must be positive");
+		
+		this.url = url;
+		this.rate = rate;
+		this.duration = duration;
+		this.timeout = timeout;
+		this.poisson = poisson;
+	}
+	
+	
+	/**
+	 * Runs the load and waits for every request to complete, or fail, giving up after twice the timeout.
+	 * 
+	 * @return true if every request completed, false if the run gave up waiting and its results are partial.
+	 * @throws MalformedURLException if the URL is not valid.
+	 * @throws IOException if the client can not be started.
+	 */
+	public boolean run() throws InterruptedException, IOException {
+		URL target = new URL(url);
+		parser = new StateReader(url);
+		AsyncPreviewClient client = new AsyncPreviewClient();
+		try {
+			Random random = new Random(1);
+			double interval = 1000000000.0 / rate;	// nanoseconds between requests
+			
+			long start = System.nanoTime();
+			long end = start + duration * 1000000L;
+			double due = start;
+			
+			while (due < end) {
+				long wait = (long)due - System.nanoTime();
+				if (wait > 0)
+					TimeUnit.NANOSECONDS.sleep(wait);
+				
+				client.getBody(target, timeout, new Request((long)due));
+				sent++;
+				
+				due += poisson ? -Math.log(1.0 - random.nextDouble()) * interval : interval;
+			}
+			
+			// Every request has a deadline, so all should be heard from within the timeout
+			long giveUp = System.currentTimeMillis() + timeout * 2L;
+			synchronized (finished) {
+				long left;
+				while (completed < sent && (left = giveUp - System.currentTimeMillis()) > 0)
+					finished.wait(left);
+				complete = completed == sent;
+			}
+			elapsed = System.nanoTime() - start;
+			return complete;
+			
+		} finally {
+			client.close();
+		}
+	}
+	
+	
+	/**
+	 * @return true if the last run heard back from every request, false if its results are partial.
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+	
+	/**
+	 * @return the number of requests started.
+	 */
+	public long getSent() {
+		return sent;
+	}
+	
+	/**
+	 * @return the number of requests whose body was read as a state.
+	 */
+	public long getSucceeded() {
+		return succeeded.get();
+	}
+	
+	/**
+	 * @return the number of responses whose body could not be read as a state.
+	 */
+	public long getUnparseable() {
+		AtomicLong count = errors.get(UNPARSEABLE);
+		return null == count ? 0 : count.get();
+	}
+	
+	/**
+	 * @return the number of requests which failed, of any kind, including unparseable responses.
+	 */
+	public long getFailed() {
+		long failed = 0;
+		for (AtomicLong count : errors.values())
+			failed += count.get();
+		return failed;
+	}
+	
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+	
+	/**
+	 * Writes the results of the run.
+	 */
+	public void report(java.io.PrintStream out) {
+		double seconds = elapsed / 1000000000.0;
+		long failed = getFailed();
+		
+		if (!complete) {
+			out.println(String.format("INCOMPLETE: %d of %d requests still outstanding when the run gave up, the results below are partial",
+					sent - succeeded.get() - failed, sent));
+		}
+		out.println(String.format("%s: %d requests in %.1fs, target %.1f/s, achieved %.1f/s", url, sent, seconds, rate, 
+				(succeeded.get() + failed) / seconds));
+		out.println(String.format("  succeeded %d, failed %d (%.2f%%)", succeeded.get(), failed, sent == 0 ? 0.0 : failed * 100.0 / sent));
+		
+		for (Map.Entry<String, AtomicLong> error : new TreeMap<String, AtomicLong>(errors).entrySet())
+			out.println(String.format("    %-40s %d", error.getKey(), error.getValue().get()));
+		
+		out.println("  latency (from due time)     " + percentiles(latency));
+		out.println("  service time (from start)   " + percentiles(serviceTime));
+	}
+	
+	
+	private static String percentiles(LatencyHistogram histogram) {
+		return String.format("p50 %8.2fms  p90 %8.2fms  p99 %8.2fms  p99.9 %8.2fms  max %8.2fms",
+				histogram.getPercentile(50) / 1000.0, histogram.getPercentile(90) / 1000.0,
+				histogram.getPercentile(99) / 1000.0, histogram.getPercentile(99.9) / 1000.0, histogram.getMax() / 1000.0);
+	}
+
+	private void countError(String name) {
+		AtomicLong count = errors.get(name);
+		if (null == count) {
+			synchronized (errors) {
+				count = errors.get(name);
+				if (null == count) {
+					count = new AtomicLong();
+					errors.put(name, count);
+				}
+			}
+		}
+		count.incrementAndGet();
+	}
+	
+	
+	/**
+	 * A single poll, due to start at the given time.  Called back on the client's I/O thread when it completes.
+	 */
+	private class Request implements PreviewCallback {
+		
+		private final long due;
+		private final long started = System.nanoTime();
+		
+		Request(long due) {
+			this.due = due;
+		}
+		
+		@Override
+		public void onPreview(String body) {
+			try {
+				parser.readState(new ByteArrayInputStream(body.getBytes("UTF-8")));
+				succeeded.incrementAndGet();
+			} catch (IOException e) {
+				countError(UNPARSEABLE);
+			}
+			record();
+		}
+		
+		@Override
+		public void onFailure(IOException e) {
+			countError(e.getClass().getSimpleName());
+			record();
+		}
+		
+		private void record() {
+			long now = System.nanoTime();
+			latency.record((now - due) / 1000);
+			serviceTime.record((now - started) / 1000);
+			
+			synchronized (finished) {
+				completed++;
+				finished.notifyAll();
+			}
+		}
+	}
+	
+	
+	
+	public static void main(String[] args) throws Exception {
+		String url = null;
+		double rate = 100;
+		long clients = 0;
+		double interval = 180;
+		long duration = 30;
+		int timeout = 10000;
+		boolean poisson = false;
+		
+		for (String arg : args) {
+			if (arg.startsWith("--rate="))
+				rate = Double.parseDouble(value(arg));
+			else if (arg.startsWith("--clients="))
+				clients = Long.parseLong(value(arg));
+			else if (arg.startsWith("--interval="))
+				interval = Double.parseDouble(value(arg));
+			else if (arg.startsWith("--duration="))
+				duration = Long.parseLong(value(arg));
+			else if (arg.startsWith("--timeout="))
+				timeout = Integer.parseInt(value(arg));
+			else if (arg.equals("--poisson"))
+				poisson = true;
+			else if (!arg.startsWith("--"))
+				url = arg;
+			else {
+				System.err.println("unknown option " + arg);
+				System.exit(1);
+			}
+		}
+		
+		if (null == url) {
+			System.err.println("usage: LoadGenerator [--rate=n | --clients=n --interval=s] [--duration=s] [--timeout=ms] [--poisson] <url | local>");
+			System.exit(1);
+		}
+		
+		if (clients > 0)
+			rate = clients / interval;
+		
+		LocalStateServer server = null;
+		if ("local".equals(url)) {
+			server = new LocalStateServer(0, 64);
+			url = server.getURL();
+		}
+		
+		boolean complete;
+		try {
+			LoadGenerator generator = new LoadGenerator(url, rate, duration * 1000, timeout, poisson);
+			complete = generator.run();
+			generator.report(System.out);
+			
+		} finally {
+			if (null != server)
+				server.close();
+		}
+		if (!complete)
+			System.exit(2);
+	}
+	
+	private static String value(String arg) {
+		return arg.substring(arg.indexOf('=') + 1);
+	}
+}
@@ -0,0 +1,232 @@
+package org.spoofer.techinc.load;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+
+/**
+ * A minimal HTTP server, answering every request with the current state as plain text, in the same way as the space's
+ * state URL.  Used as a local target for the load generator and for testing.
+ * 
+ * @author rob gilham
+ *
+ */
+public class LocalStateServer implements Runnable {
+
+	private final ServerSocket serverSocket;
+	private final ExecutorService workers;
+	private final Thread acceptThread;
+	
+	private volatile boolean state = true;
+	private volatile long delay = 0;
+	private volatile String body = null;
+	private volatile int nextPoll = -1;
+	
+	private final AtomicInteger handshakes = new AtomicInteger();
+	private final AtomicInteger resumedHandshakes = new AtomicInteger();
+	private final Set<String> sessionIds = new HashSet<String>();
+	
+	
+	/**
+	 * Starts a new server on the loopback address.
+	 * 
+	 * @param port the port to listen on, or zero for any free port.
+	 * @param threads the number of threads serving requests
+	 */
+	public LocalStateServer(int port, int threads) throws IOException {
+		this(new ServerSocket(port, 1024, InetAddress.getByName("127.0.0.1")), threads);
+	}
+	
+	/**
+	 * Starts a new server on the given, bound, server socket.
+	 * 
+	 * @param serverSocket the socket to accept connections on, such as an SSLServerSocket
+	 * @param threads the number of threads serving requests
+	 */
+	protected LocalStateServer(ServerSocket serverSocket, int threads) {
+		this.serverSocket = serverSocket;
+		workers = Executors.newFixedThreadPool(threads);
+		
+		acceptThread = new Thread(this, "local_state_server");
+		acceptThread.setDaemon(true);
+		acceptThread.start();
+	}
+	
+	
+	/**
+	 * @return the URL of the state served.
+	 */
+	public String getURL() {
+		return getScheme() + "://127.0.0.1:" + serverSocket.getLocalPort() + "/spacestate";
+	}
+	
+	protected String getScheme() {
+		return "http";
+	}
+	
+	/**
+	 * @return the number of TLS handshakes completed, zero for a plain http server.
+	 */
+	public int getHandshakes() {
+		return handshakes.get();
+	}
+	
+	/**
+	 * @return the number of TLS handshakes which resumed an earlier session.
+	 */
+	public int getResumedHandshakes() {
+		return resumedHandshakes.get();
+	}
+	
+	public int getPort() {
+		return serverSocket.getLocalPort();
+	}
+	
+	public void setState(boolean state) {
+		this.state = state;
+	}
+	
+	/**
+	 * Sets the body sent in place of the state, such as to test a response which is too large.
+	 * @param body the body to send, or null to send the state.
+	 */
+	public void setBody(String body) {
+		this.body = body;
+	}
+	
+	/**
+	 * Sets the X-Next-Poll header sent with each response, directing when the client should poll again.
+	 * @param nextPoll the number of seconds until the next poll, or -1 to send no directive.
+	 */
+	public void setNextPoll(int nextPoll) {
+		this.nextPoll = nextPoll;
+	}
+	
+	/**
+	 * Sets a delay, in milliseconds, before each response is sent, to simulate a slow server.
+	 */
+	public void setDelay(long delay) {
+		this.delay = delay;
+	}
+	
+	/**
+	 * Stops the server.  Once closed, connections to its port are refused.
+	 */
+	public void close() {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			// closing anyway
+		}
+		
+		// The listening socket is only released once the accept thread has left accept
+		try {
+			acceptThread.join(5000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdownNow();
+	}
+	
+
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			try {
+				final Socket socket = serverSocket.accept();
+				try {
+					workers.execute(new Runnable() {
+						@Override
+						public void run() {
+							serve(socket);
+						}
+					});
+				} catch (RejectedExecutionException e) {
+					socket.close();	// Accepted as the server closed
+				}
+				
+			} catch (IOException e) {
+				if (!serverSocket.isClosed())
+					System.err.println("local state server failed to accept: " + e.getMessage());
+			}
+		}
+	}
+	
+	
+	/**
+	 * Formats a time as an http date, as real servers send in their Date header.
+	 */
+	private static String formatDate(long time) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(time));
+	}
+	
+		private void countHandshake(SSLSession session) {
+		StringBuilder id = new StringBuilder();
+		for (byte b : session.getId())
+			id.append(Integer.toHexString(b & 0xff));
+		
+		handshakes.incrementAndGet();
+		synchronized (sessionIds) {
+			if (!sessionIds.add(id.toString()))
+				resumedHandshakes.incrementAndGet();
+		}
+	}
+	
+	private void serve(Socket socket) {
+		try {
+			if (socket instanceof SSLSocket)
+				countHandshake(((SSLSocket)socket).getSession());
+			
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+			String line;
+			while (null != (line = in.readLine()) && line.length() > 0)
+				;	// Skip the request and its headers
+			
+			if (delay > 0)
+				Thread.sleep(delay);
+			
+			String body = null == this.body ? (state ? "open" : "closed") + "\n" : this.body;
+			String response = "HTTP/1.0 200 OK\r\n"
+					+ "Date: " + formatDate(System.currentTimeMillis()) + "\r\n"
+					+ "Cache-Control: no-cache\r\n"
+					+ (nextPoll >= 0 ? "X-Next-Poll: " + nextPoll + "\r\n" : "")
+					+ "Content-Type: text/plain\r\n"
+					+ "Content-Length: " + body.length() + "\r\n"
+					+ "Connection: close\r\n\r\n" + body;
+			
+			OutputStream out = socket.getOutputStream();
+			out.write(response.getBytes("US-ASCII"));
+			out.flush();
+			
+		} catch (IOException e) {
+			// Client went away
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// closing anyway
+			}
+		}
+	}
+}
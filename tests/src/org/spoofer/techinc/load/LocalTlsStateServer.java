@@ -0,0 +1,98 @@
+package org.spoofer.techinc.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+
+/**
+ * A loopback https state server, using the self signed certificate for localhost and 127.0.0.1 held in localhost.p12.
+ * It counts the handshakes which resume an earlier session, to show the TLS session cache at work.
+ * TLS 1.3 is turned off, as its resumed sessions do not keep their session ids.
+ * 
+ * Clients must trust the certificate, with the trust managers from getTrustManagers().
+ * 
+ * @author rob gilham
+ *
+ */
+public class LocalTlsStateServer extends LocalStateServer {
+
+	private static final String KEYSTORE = "localhost.p12";
+	private static final char[] KEYSTORE_PASSWORD = "techinc".toCharArray();
+	private static final String CERTIFICATE_ALIAS = "localhost";
+	private static final String[] PROTOCOLS = new String[]{"TLSv1.2", "TLSv1.1", "TLSv1"};
+	
+	private final TrustManager[] trustManagers;
+	
+	
+	private LocalTlsStateServer(SSLServerSocket serverSocket, int threads, TrustManager[] trustManagers) {
+		super(serverSocket, threads);
+		this.trustManagers = trustManagers;
+	}
+	
+	
+	/**
+	 * Starts a new https server on the loopback address.
+	 * 
+	 * @param port the port to listen on, or zero for any free port.
+	 * @param threads the number of threads serving requests
+	 */
+	public static LocalTlsStateServer start(int port, int threads) throws IOException, GeneralSecurityException {
+		KeyStore keys = KeyStore.getInstance("PKCS12");
+		InputStream in = LocalTlsStateServer.class.getResourceAsStream(KEYSTORE);
+		if (null == in)
+			throw new IOException("Missing " + KEYSTORE);
+		try {
+			keys.load(in, KEYSTORE_PASSWORD);
+		} finally {
+			in.close();
+		}
+		
+		KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+		keyManagers.init(keys, KEYSTORE_PASSWORD);
+		SSLContext context = SSLContext.getInstance("TLS");
+		context.init(keyManagers.getKeyManagers(), null, null);
+		
+		SSLServerSocket serverSocket = (SSLServerSocket)context.getServerSocketFactory().createServerSocket(port, 1024, InetAddress.getByName("127.0.0.1"));
+		List<String> protocols = new ArrayList<String>(Arrays.asList(PROTOCOLS));
+		protocols.retainAll(Arrays.asList(serverSocket.getSupportedProtocols()));
+		serverSocket.setEnabledProtocols(protocols.toArray(new String[protocols.size()]));
+		
+		return new LocalTlsStateServer(serverSocket, threads, trustManagersFor(keys.getCertificate(CERTIFICATE_ALIAS)));
+	}
+	
+	
+	/**
+	 * @return trust managers which trust this server's certificate.
+	 */
+	public TrustManager[] getTrustManagers() {
+		return trustManagers;
+	}
+	
+	@Override
+	protected String getScheme() {
+		return "https";
+	}
+	
+	
+	private static TrustManager[] trustManagersFor(Certificate certificate) throws IOException, GeneralSecurityException {
+		KeyStore trusted = KeyStore.getInstance(KeyStore.getDefaultType());
+		trusted.load(null, null);
+		trusted.setCertificateEntry(CERTIFICATE_ALIAS, certificate);
+		
+		TrustManagerFactory factory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+		factory.init(trusted);
+		return factory.getTrustManagers();
+	}
+}
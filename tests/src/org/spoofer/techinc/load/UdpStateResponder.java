@@ -0,0 +1,128 @@
+package org.spoofer.techinc.load;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+
+import org.spoofer.techinc.state.StateDatagram;
+
+/**
+ * A small responder for the compact UDP state protocol, for local testing of the UdpStateReader.
+ * Answers each valid request with the current state, signed with the given key.
+ * 
+ * Run from the desktop:
+ * 	java -cp bin/classes:tests/bin/classes org.spoofer.techinc.load.UdpStateResponder <port> <key> [open | closed]
+ * 
+ * @author rob gilham
+ *
+ */
+public class UdpStateResponder implements Runnable {
+
+	private final DatagramSocket socket;
+	private final byte[] key;
+	private final Thread thread;
+	
+	private boolean state = true;
+	private int sequence = 0;
+	private volatile int nextPoll = 0;
+	private volatile boolean silent = false;
+	
+	
+	/**
+	 * Starts a responder on the given address.
+	 * 
+	 * @param address the address to listen on
+	 * @param port the port to listen on, or zero for any free port
+	 * @param key the secret used to sign replies
+	 */
+	public UdpStateResponder(InetAddress address, int port, byte[] key) throws IOException {
+		this.socket = new DatagramSocket(port, address);
+		this.key = key;
+		
+		thread = new Thread(this, "udp_state_responder");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	public int getPort() {
+		return socket.getLocalPort();
+	}
+	
+	/**
+	 * @return the location of this responder, as udp://host:port
+	 */
+	public String getLocation() {
+		return "udp://" + socket.getLocalAddress().getHostAddress() + ":" + socket.getLocalPort();
+	}
+	
+	/**
+	 * Sets the state, moving on the sequence number if it has changed.
+	 */
+	public synchronized void setState(boolean state) {
+		if (state != this.state) {
+			this.state = state;
+			sequence++;
+		}
+	}
+	
+	/**
+	 * Sets the seconds until the next poll suggested to clients, zero for no suggestion.
+	 */
+	public void setNextPoll(int nextPoll) {
+		this.nextPoll = nextPoll;
+	}
+	
+	/**
+	 * Stops replying, to simulate lost datagrams.
+	 */
+	public void setSilent(boolean silent) {
+		this.silent = silent;
+	}
+	
+	public void close() {
+		socket.close();
+	}
+	
+	
+	@Override
+	public void run() {
+		byte[] buffer = new byte[StateDatagram.REQUEST_SIZE + 1];
+		
+		while (!socket.isClosed()) {
+			DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+			try {
+				socket.receive(packet);
+				long nonce = StateDatagram.decodeRequest(packet.getData(), packet.getLength());
+				if (silent)
+					continue;
+				
+				byte[] reply;
+				synchronized (this) {
+					reply = StateDatagram.encodeReply(nonce, state, sequence, nextPoll, key);
+				}
+				socket.send(new DatagramPacket(reply, reply.length, packet.getSocketAddress()));
+				
+			} catch (IOException e) {
+				if (!socket.isClosed())
+					System.err.println("udp state responder: " + e.getMessage());
+			}
+		}
+	}
+	
+	
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.err.println("usage: UdpStateResponder <port> <key> [open | closed]");
+			System.exit(1);
+		}
+		
+		UdpStateResponder responder = new UdpStateResponder(InetAddress.getByName("0.0.0.0"), Integer.parseInt(args[0]), args[1].getBytes("UTF-8"));
+		if (args.length > 2)
+			responder.setState("open".equalsIgnoreCase(args[2]));
+		
+		System.out.println("responding on " + responder.getLocation());
+		responder.thread.join();
+	}
+}
@@ -0,0 +1,127 @@
+package org.spoofer.techinc.test;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.load.LocalStateServer;
+import org.spoofer.techinc.state.AsyncPreviewClient;
+import org.spoofer.techinc.state.PreviewCallback;
+import org.spoofer.techinc.state.PreviewFuture;
+
+public class TestAsyncPreviewClient extends TestCase {
+
+	private static final long TIMEOUT = 5000;
+
+	private LocalStateServer server;
+	private AsyncPreviewClient client;
+	private URL url;
+
+
+	@Override
+	protected void setUp() throws Exception {
+		server = new LocalStateServer(0, 4);
+		client = new AsyncPreviewClient();
+		url = new URL(server.getURL());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		client.close();
+		server.close();
+	}
+
+
+	public void testPreview() throws Exception {
+		assertEquals("open", client.getPreview(url, 1, TIMEOUT, null).get(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		server.setState(false);
+		assertEquals("closed", client.getPreview(url, 1, TIMEOUT, null).get(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	public void testDeadline() throws Exception {
+		server.setDelay(2000);
+		PreviewFuture future = client.getPreview(url, 1, 200, null);
+		try {
+			future.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail("preview past its deadline completed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+		}
+	}
+
+	public void testDeadlinesOutOfOrder() throws Exception {
+		server.setDelay(1000);
+		PreviewFuture later = client.getPreview(url, 1, TIMEOUT, null);
+		PreviewFuture sooner = client.getPreview(url, 1, 200, null);
+		
+		try {
+			sooner.get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail("preview past its deadline completed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof SocketTimeoutException);
+		}
+		assertFalse(later.isDone());
+		assertEquals("open", later.get(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+	
+	public void testCancel() throws Exception {
+		server.setDelay(1000);
+		PreviewFuture cancelled = client.getPreview(url, 1, TIMEOUT, null);
+		assertTrue(cancelled.cancel(true));
+		assertTrue(cancelled.isCancelled());
+		
+		server.setDelay(0);
+		assertEquals("open", client.getPreview(url, 1, TIMEOUT, null).get(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	public void testOversizedResponse() throws Exception {
+		StringBuilder body = new StringBuilder();
+		while (body.length() <= PreviewFuture.MAX_RESPONSE_BYTES)
+			body.append("0123456789012345678901234567890123456789\n");
+		server.setBody(body.toString());
+
+		try {
+			client.getPreview(url, 10000, TIMEOUT, null).get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail("oversized response accepted");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+			assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("larger than"));
+		}
+	}
+
+	public void testThrowingCallbackLeavesOthersRunning() throws Exception {
+		final CountDownLatch thrown = new CountDownLatch(1);
+		client.getPreview(url, 1, TIMEOUT, new PreviewCallback() {
+			@Override
+			public void onPreview(String preview) {
+				thrown.countDown();
+				throw new IllegalStateException("callback failed");
+			}
+
+			@Override
+			public void onFailure(IOException e) {
+				thrown.countDown();
+				throw new IllegalStateException("callback failed");
+			}
+		});
+		assertTrue(thrown.await(TIMEOUT, TimeUnit.MILLISECONDS));
+
+		assertEquals("open", client.getPreview(url, 1, TIMEOUT, null).get(TIMEOUT, TimeUnit.MILLISECONDS));
+	}
+
+	public void testClosedClientFails() throws Exception {
+		client.close();
+		try {
+			client.getPreview(url, 1, TIMEOUT, null).get(TIMEOUT, TimeUnit.MILLISECONDS);
+			fail("closed client made a request");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+	}
+}
@@ -0,0 +1,83 @@
+package org.spoofer.techinc.test;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.load.LatencyHistogram;
+import org.spoofer.techinc.load.LoadGenerator;
+import org.spoofer.techinc.load.LocalStateServer;
+
+public class TestLoadGenerator extends TestCase {
+
+	public void testHistogramPercentiles() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (int i = 1; i <= 1000; i++)
+			histogram.record(i * 1000);
+		
+		assertEquals(1000, histogram.getCount());
+		assertEquals(1000000, histogram.getMax());
+		assertEquals(500000, histogram.getPercentile(50), 500000 * 0.07);
+		assertEquals(990000, histogram.getPercentile(99), 990000 * 0.07);
+		assertEquals(1000000, histogram.getPercentile(100));
+	}
+	
+	
+	public void testLocalLoad() {
+		LocalStateServer server = null;
+		try {
+			server = new LocalStateServer(0, 8);
+			
+			LoadGenerator generator = new LoadGenerator(server.getURL(), 50, 2000, 5000, false);
+			assertTrue("run gave up before every request completed", generator.run());
+			
+			assertEquals(100, generator.getSent());
+			assertEquals(0, generator.getFailed());
+			assertEquals(0, generator.getUnparseable());
+			assertEquals(generator.getSent(), generator.getSucceeded());
+			assertEquals(generator.getSent(), generator.getLatency().getCount());
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+			
+		} catch (InterruptedException e) {
+			fail(e.getMessage());
+			
+		} finally {
+			if (null != server)
+				server.close();
+		}
+	}
+	
+	public void testStatusDocument() throws Exception {
+		LocalStateServer server = new LocalStateServer(0, 8);
+		try {
+			server.setBody("{\n  \"api\": \"0.13\",\n  \"state\": {\n    \"open\": true\n  }\n}\n");
+			
+			LoadGenerator generator = new LoadGenerator(server.getURL(), 50, 1000, 5000, false);
+			assertTrue(generator.run());
+			assertEquals(generator.getSent(), generator.getSucceeded());
+			assertEquals(0, generator.getFailed());
+			
+		} finally {
+			server.close();
+		}
+	}
+	
+	public void testTruncatedStatusIsUnparseable() throws Exception {
+		LocalStateServer server = new LocalStateServer(0, 8);
+		try {
+			server.setBody("{\"state\": {\"open\": tr");
+			
+			LoadGenerator generator = new LoadGenerator(server.getURL(), 50, 1000, 5000, false);
+			assertTrue(generator.run());
+			assertEquals(0, generator.getSucceeded());
+			assertEquals(generator.getSent(), generator.getUnparseable());
+			assertEquals(generator.getSent(), generator.getFailed());
+			
+		} finally {
+			server.close();
+		}
+	}
+}
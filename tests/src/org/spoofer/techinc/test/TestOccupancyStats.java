@@ -0,0 +1,114 @@
+package org.spoofer.techinc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Random;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.stats.OccupancyStats;
+import org.spoofer.techinc.stats.QuantileSketch;
+
+public class TestOccupancyStats extends TestCase {
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private static final long MINUTE = 60 * 1000;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long WEEK = 7 * 24 * HOUR;
+	private static final long MONDAY = 4 * 24 * HOUR;	// The first Monday after the epoch, 5 January 1970
+	private static final long POLL = 3 * MINUTE;
+
+
+	/**
+	 * Open every Tuesday from 19:00 to 23:00, polled every three minutes.
+	 */
+	public void testTuesdayEvenings() {
+		OccupancyStats stats = new OccupancyStats(UTC);
+		long tuesday = MONDAY + 24 * HOUR;
+
+		for (long now = MONDAY; now < MONDAY + 4 * WEEK; now += POLL) {
+			long sinceTuesday = (now - tuesday) % WEEK;
+			stats.update(sinceTuesday >= 19 * HOUR && sinceTuesday < 23 * HOUR, now);
+		}
+
+		assertEquals(1.0, stats.getOpenProbability(Calendar.TUESDAY, 20), 0.0001);
+		assertEquals(0.0, stats.getOpenProbability(Calendar.TUESDAY, 18), 0.0001);
+		assertEquals(0.0, stats.getOpenProbability(Calendar.WEDNESDAY, 20), 0.0001);
+		assertEquals(4 / 5.0, stats.getOpenProbability(Calendar.TUESDAY, 19, 24), 0.0001);
+
+		assertEquals(4, stats.getOpenings(Calendar.TUESDAY, 19));
+		assertEquals(4, stats.getClosings(Calendar.TUESDAY, 23));
+		assertEquals(4, stats.getTotalOpenings());
+		assertEquals(4, stats.getSessions());
+		assertEquals(4 * 60 * 60, stats.getSessionLength(OccupancyStats.QUANTILE_MEDIAN), 1);
+	}
+
+	public void testGapsAreNotObserved() {
+		OccupancyStats stats = new OccupancyStats(UTC);
+
+		stats.update(true, MONDAY);
+		stats.update(true, MONDAY + HOUR);
+		stats.update(false, MONDAY + 10 * HOUR);	// The engine was not running
+
+		assertEquals(1.0, stats.getOpenProbability(Calendar.MONDAY, 0), 0.0001);
+		assertTrue(Double.isNaN(stats.getOpenProbability(Calendar.MONDAY, 5)));
+		assertEquals(1, stats.getTotalClosings());
+		assertEquals(0, stats.getSessions());
+	}
+
+	public void testSketchEstimatesQuantiles() {
+		QuantileSketch median = new QuantileSketch(0.5);
+		QuantileSketch high = new QuantileSketch(0.9);
+		Random random = new Random(1);
+
+		for (int i = 0; i < 10000; i++) {
+			double value = random.nextDouble() * 1000;
+			median.add(value);
+			high.add(value);
+		}
+
+		assertEquals(500, median.getQuantile(), 20);
+		assertEquals(900, high.getQuantile(), 20);
+	}
+
+	public void testWriteAndRead() throws IOException {
+		OccupancyStats stats = new OccupancyStats(UTC);
+		Random random = new Random(1);
+		boolean open = false;
+		for (long now = MONDAY; now < MONDAY + 8 * WEEK; now += POLL) {
+			if (random.nextInt(40) == 0)
+				open = !open;
+			stats.update(open, now);
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		stats.write(new DataOutputStream(bytes));
+		assertTrue("written " + bytes.size() + " bytes", bytes.size() < 4096);
+
+		OccupancyStats restored = new OccupancyStats(UTC);
+		restored.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+		for (int day = Calendar.SUNDAY; day <= Calendar.SATURDAY; day++) {
+			for (int hour = 0; hour < 24; hour++) {
+				assertEquals(stats.getOpenProbability(day, hour), restored.getOpenProbability(day, hour), 0);
+				assertEquals(stats.getOpenings(day, hour), restored.getOpenings(day, hour));
+			}
+		}
+		assertEquals(stats.getSessionLength(OccupancyStats.QUANTILE_90), restored.getSessionLength(OccupancyStats.QUANTILE_90), 0);
+
+		// Both carry on in the same way
+		long now = MONDAY + 8 * WEEK;
+		stats.update(!open, now);
+		restored.update(!open, now);
+		stats.update(open, now + HOUR);
+		restored.update(open, now + HOUR);
+		assertEquals(stats.getSessionLength(OccupancyStats.QUANTILE_MEDIAN), restored.getSessionLength(OccupancyStats.QUANTILE_MEDIAN), 0);
+		assertEquals(stats.getSessions(), restored.getSessions());
+	}
+}
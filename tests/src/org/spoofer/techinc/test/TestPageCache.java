@@ -0,0 +1,91 @@
+package org.spoofer.techinc.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.load.LocalStateServer;
+import org.spoofer.techinc.page.CachedPage;
+import org.spoofer.techinc.page.PageCache;
+import org.spoofer.techinc.page.PagePrefetcher;
+
+public class TestPageCache extends TestCase {
+
+	private static final int PAGE_SIZE = 1000;
+	
+	private File dir;
+	
+	
+	@Override
+	protected void setUp() throws Exception {
+		dir = File.createTempFile("pages", "");
+		dir.delete();
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		File[] files = dir.listFiles();
+		if (null != files) {
+			for (File file : files)
+				file.delete();
+		}
+		dir.delete();
+	}
+	
+	
+	public void testLeastRecentlyUsedIsEvicted() throws IOException {
+		PageCache cache = new PageCache(dir, 3 * PAGE_SIZE + 500);
+		
+		cache.put(page("http://a/"));
+		cache.put(page("http://b/"));
+		cache.put(page("http://c/"));
+		assertNotNull(cache.get("http://a/"));
+		
+		cache.put(page("http://d/"));
+		
+		assertEquals(3, cache.getCount());
+		assertTrue(cache.getSize() <= cache.getMaxSize());
+		assertTrue(cache.contains("http://a/"));
+		assertFalse(cache.contains("http://b/"));
+		assertTrue(cache.contains("http://d/"));
+	}
+	
+	public void testPagesSurviveReopening() throws IOException {
+		PageCache cache = new PageCache(dir, 10 * PAGE_SIZE);
+		cache.put(page("http://a/"));
+		cache.put(page("http://a/"));
+		
+		PageCache reopened = new PageCache(dir, 10 * PAGE_SIZE);
+		assertEquals(1, reopened.getCount());
+		assertEquals(cache.getSize(), reopened.getSize());
+		
+		CachedPage page = reopened.get("http://a/");
+		assertEquals(PAGE_SIZE, page.getBody().length);
+		assertEquals("text/html", page.getMimeType());
+		assertEquals("utf-8", page.getEncoding());
+	}
+	
+	public void testPrefetch() throws IOException {
+		LocalStateServer server = new LocalStateServer(0, 1);
+		try {
+			PageCache cache = new PageCache(dir, 10 * PAGE_SIZE);
+			PagePrefetcher prefetcher = new PagePrefetcher(cache);
+			
+			assertTrue(prefetcher.prefetch(server.getURL()));
+			assertFalse(prefetcher.prefetch(server.getURL()));
+			
+			CachedPage page = cache.get(server.getURL());
+			assertEquals("open", page.getText().trim());
+			assertEquals("text/plain", page.getMimeType());
+			
+		} finally {
+			server.close();
+		}
+	}
+	
+	
+	private static CachedPage page(String url) {
+		return new CachedPage(url, url, "text/html; charset=utf-8", System.currentTimeMillis(), new byte[PAGE_SIZE]);
+	}
+}
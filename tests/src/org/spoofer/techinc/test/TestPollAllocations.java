@@ -0,0 +1,154 @@
+package org.spoofer.techinc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.util.TimeZone;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.load.LocalStateServer;
+import org.spoofer.techinc.state.AdaptivePollPolicy;
+import org.spoofer.techinc.state.PollDirectives;
+import org.spoofer.techinc.state.StateDecider;
+import org.spoofer.techinc.state.StateReader;
+import org.spoofer.techinc.state.TokenBucket;
+import org.spoofer.techinc.stats.OccupancyStats;
+import org.spoofer.techinc.trace.Trace;
+import org.spoofer.techinc.trace.TraceEvent;
+
+import android.os.Debug;
+
+/**
+ * Measures the bytes allocated by a steady state poll, one which reads the same state as the last, on the polling thread.
+ * Everything the engine does around the connection must allocate nothing.  The http poll as a whole is allowed a
+ * budget for the connection and socket, so a change which starts allocating per line or per log call shows up here.
+ * 
+ * The counts come from android.os.Debug's thread allocation counting, so they are only real on a device or emulator.
+ * The http budget was set from a desktop run against a stand-in for android.os.Debug, and should be checked on a device.
+ */
+public class TestPollAllocations extends TestCase {
+
+	private static final int WARM_UP = 200;
+	private static final int POLLS = 1000;
+	private static final int HTTP_POLLS = 50;
+	private static final int ROUNDS = 5;
+
+	private static final String DATE = "Sun, 18 Oct 2026 20:00:00 GMT";
+
+	private static final int HTTP_POLL_BUDGET = 56 * 1024;	// Bytes per http poll, nearly all of it the connection's own, whose size varies by runtime
+
+
+	private interface Poll {
+		void poll() throws IOException;
+	}
+
+
+	/**
+	 * A State Reader which reads the state from a fixed response, in place of a connection.
+	 */
+	private static class StreamStateReader extends StateReader {
+
+		private final ByteArrayInputStream response;
+
+		public StreamStateReader(String response) throws MalformedURLException {
+			super("http://127.0.0.1/spacestate");
+			this.response = new ByteArrayInputStream(response.getBytes());
+		}
+
+		@Override
+		protected InputStream openStream() throws IOException {
+			response.reset();
+			return response;
+		}
+	}
+
+
+	public void testParseAllocatesNothing() throws IOException {
+		final StreamStateReader reader = new StreamStateReader("  Open \r\nclosed\r\n");
+
+		int bytes = measure(new Poll() {
+			@Override
+			public void poll() throws IOException {
+				if (!reader.getState())
+					throw new AssertionError("state not open");
+			}
+		}, POLLS);
+
+		assertEquals(0, bytes);
+	}
+
+	public void testDecisionAllocatesNothing() throws IOException {
+		final StateDecider decider = new StateDecider(2);
+		final AdaptivePollPolicy policy = new AdaptivePollPolicy(60000, 3600000, 2.0);
+		final TokenBucket bucket = new TokenBucket(5, 1.0, 0);
+		final OccupancyStats stats = new OccupancyStats(TimeZone.getTimeZone("UTC"));
+		decider.update(true);
+
+		int bytes = measure(new Poll() {
+			long now = 0;
+
+			@Override
+			public void poll() throws IOException {
+				bucket.tryAcquire(now += 1000);
+				// The headers of a typical dynamic status page, as sent by the LocalStateServer
+				long suggested = PollDirectives.getSuggestedDelay(null, null, "no-cache", null, null, DATE, now);
+				boolean changed = decider.update(true);
+				Trace.event(TraceEvent.DECISION, changed ? 3 : 1);
+				stats.update(true, now);
+				policy.getNextPollDelay(true, changed);
+				Trace.event(TraceEvent.SCHEDULE, (int)Math.max(0, suggested));
+			}
+		}, POLLS);
+
+		assertEquals(0, bytes);
+	}
+
+	public void testHttpPollWithinBudget() throws IOException {
+		LocalStateServer server = new LocalStateServer(0, 1);
+		try {
+			final StateReader reader = new StateReader(server.getURL());
+
+			int bytes = measure(new Poll() {
+				@Override
+				public void poll() throws IOException {
+					if (!reader.getState())
+						throw new AssertionError("state not open");
+				}
+			}, HTTP_POLLS);
+
+			assertTrue("http poll allocated " + bytes + " bytes", bytes <= HTTP_POLL_BUDGET);
+
+		} finally {
+			server.close();
+		}
+	}
+
+
+	/**
+	 * Runs the poll until it is warmed up, then measures the bytes it allocates on this thread.
+	 * The least of several rounds is taken, so one off allocations by the runtime, such as while compiling, are not counted.
+	 *
+	 * @return the average number of bytes allocated by each poll.
+	 */
+	private static int measure(Poll poll, int polls) throws IOException {
+		for (int i = 0; i < Math.min(polls, WARM_UP); i++)
+			poll.poll();
+
+		int least = Integer.MAX_VALUE;
+		Debug.startAllocCounting();
+		try {
+			for (int round = 0; round < ROUNDS; round++) {
+				Debug.resetThreadAllocSize();
+				for (int i = 0; i < polls; i++)
+					poll.poll();
+				least = Math.min(least, Debug.getThreadAllocSize() / polls);
+			}
+			return least;
+
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+}
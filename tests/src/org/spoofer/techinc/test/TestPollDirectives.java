@@ -0,0 +1,56 @@
+package org.spoofer.techinc.test;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.state.PollDirectives;
+
+public class TestPollDirectives extends TestCase {
+
+	private static final String DATE = "Sun, 18 Oct 2026 20:00:00 GMT";
+	private static final String DATE_PLUS_HOUR = "Sun, 18 Oct 2026 21:00:00 GMT";
+	
+	
+	public void testNoDirectives() {
+		assertEquals(-1, PollDirectives.getSuggestedDelay(null, null, null, null, null, null, 0));
+	}
+	
+	public void testRetryAfter() {
+		assertEquals(120000, PollDirectives.getSuggestedDelay("120", "30", "max-age=60", null, null, null, 0));
+		assertEquals(3600000, PollDirectives.getSuggestedDelay(DATE_PLUS_HOUR, null, null, null, null, DATE, 0));
+	}
+	
+	public void testNextPoll() {
+		assertEquals(30000, PollDirectives.getSuggestedDelay(null, "30", "max-age=60", null, null, null, 0));
+	}
+	
+	public void testCacheControl() {
+		assertEquals(300000, PollDirectives.getSuggestedDelay(null, null, "public, max-age=300", null, null, null, 0));
+		assertEquals(200000, PollDirectives.getSuggestedDelay(null, null, "max-age=300", "100", null, null, 0));
+		assertEquals(-1, PollDirectives.getSuggestedDelay(null, null, "no-cache, max-age=300", null, DATE_PLUS_HOUR, DATE, 0));
+		assertEquals(300000, PollDirectives.getSuggestedDelay(null, null, " Public , MAX-AGE=300 ", null, null, DATE, 0));
+		assertEquals(-1, PollDirectives.getSuggestedDelay(null, null, "max-age=5m", null, null, null, 0));
+		assertEquals(Integer.MAX_VALUE * 1000L, PollDirectives.getSuggestedDelay(null, "99999999999999999999999", null, null, null, null, 0));
+	}
+	
+	public void testExpires() {
+		assertEquals(3600000, PollDirectives.getSuggestedDelay(null, null, null, null, DATE_PLUS_HOUR, DATE, 0));
+	}
+	
+	public void testExpiredIsNoSuggestion() {
+		assertEquals(-1, PollDirectives.getSuggestedDelay(null, null, "max-age=0", null, null, DATE, 0));
+		assertEquals(-1, PollDirectives.getSuggestedDelay(null, null, "max-age=60", "120", null, DATE, 0));
+		assertEquals(-1, PollDirectives.getSuggestedDelay(null, null, null, null, "0", DATE, 0));
+		assertEquals(-1, PollDirectives.getSuggestedDelay(null, null, null, null, DATE, DATE_PLUS_HOUR, 0));
+		
+		// A directive may still ask for a poll straight away
+		assertEquals(0, PollDirectives.getSuggestedDelay("0", null, "max-age=0", null, null, DATE, 0));
+		assertEquals(0, PollDirectives.getDirectedDelay(null, "0", null, 0));
+		assertEquals(-1, PollDirectives.getDirectedDelay(null, null, null, 0));
+	}
+	
+	public void testClamp() {
+		assertEquals(60000, PollDirectives.clamp(1000, 60000, 3600000));
+		assertEquals(3600000, PollDirectives.clamp(86400000, 60000, 3600000));
+		assertEquals(300000, PollDirectives.clamp(300000, 60000, 3600000));
+	}
+}
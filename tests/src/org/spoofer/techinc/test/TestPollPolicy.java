@@ -0,0 +1,63 @@
+package org.spoofer.techinc.test;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.state.AdaptivePollPolicy;
+import org.spoofer.techinc.state.FixedPollPolicy;
+import org.spoofer.techinc.state.PollPolicy;
+
+public class TestPollPolicy extends TestCase {
+
+	public void testFixed() {
+		PollPolicy policy = new FixedPollPolicy(180000);
+		
+		assertEquals(180000, policy.getNextPollDelay(true, true));
+		assertEquals(180000, policy.getNextPollDelay(true, false));
+		assertEquals(180000, policy.getNextPollDelay(false, false));
+	}
+	
+	public void testFixedRejectsNoDelay() {
+		try {
+			new FixedPollPolicy(0);
+			fail("zero delay accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	public void testAdaptiveBacksOff() {
+		PollPolicy policy = new AdaptivePollPolicy(1000, 8000, 2.0);
+		
+		assertEquals(1000, policy.getNextPollDelay(true, true));
+		assertEquals(2000, policy.getNextPollDelay(true, false));
+		assertEquals(4000, policy.getNextPollDelay(true, false));
+		assertEquals(8000, policy.getNextPollDelay(true, false));
+		assertEquals(8000, policy.getNextPollDelay(true, false));
+	}
+	
+	public void testAdaptiveResetsOnChange() {
+		PollPolicy policy = new AdaptivePollPolicy(1000, 8000, 1.5);
+		
+		policy.getNextPollDelay(true, false);
+		policy.getNextPollDelay(true, false);
+		assertEquals(1000, policy.getNextPollDelay(false, true));
+		assertEquals(1500, policy.getNextPollDelay(false, false));
+	}
+	
+	public void testAdaptiveRejectsInvalid() {
+		try {
+			new AdaptivePollPolicy(0, 8000, 2.0);
+			fail("zero minimum accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new AdaptivePollPolicy(8000, 1000, 2.0);
+			fail("maximum below minimum accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new AdaptivePollPolicy(1000, 8000, 0.5);
+			fail("shrinking factor accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,188 @@
+package org.spoofer.techinc.test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.schedule.PollScheduler;
+import org.spoofer.techinc.schedule.TimerWheel;
+
+public class TestPollScheduler extends TestCase {
+
+	private static final long START = 1300000000000L;
+	private static final long MINUTE = 60 * 1000;
+
+
+	/**
+	 * An Alarm which records when it was set, in place of the AlarmManager.
+	 */
+	private static class RecordingAlarm implements PollScheduler.Alarm {
+
+		long triggerAtTime = -1;
+		int sets = 0;
+
+		@Override
+		public void set(long triggerAtTime) {
+			this.triggerAtTime = triggerAtTime;
+			sets++;
+		}
+
+		@Override
+		public void cancel() {
+			triggerAtTime = -1;
+		}
+	}
+
+
+	public void testSameTickExpiresTogether() {
+		TimerWheel<String> wheel = new TimerWheel<String>(8, 1000, START);
+		wheel.schedule("a", START + 4200);
+		wheel.schedule("b", START + 4900);
+		wheel.schedule("c", START + 5100);
+
+		assertEquals(START + 5000, wheel.getNextExpiry());
+
+		List<String> due = new ArrayList<String>();
+		assertEquals(0, wheel.expire(START + 4999, due));
+		assertEquals(2, wheel.expire(START + 5000, due));
+		assertTrue(due.contains("a") && due.contains("b"));
+		assertEquals(START + 6000, wheel.getNextExpiry());
+	}
+
+	public void testDeadlinesBeyondATurnOfTheWheel() {
+		TimerWheel<String> wheel = new TimerWheel<String>(8, 1000, START);
+		wheel.schedule("near", START + 3000);
+		wheel.schedule("far", START + 3000 + 8 * 1000 * 5);	// Same slot, five turns later
+
+		List<String> due = new ArrayList<String>();
+		wheel.expire(START + 3000, due);
+		assertEquals(1, due.size());
+		assertEquals("near", due.get(0));
+		assertEquals(START + 43000, wheel.getNextExpiry());
+
+		// A long sleep passes every slot at once
+		assertEquals(1, wheel.expire(START + 10 * MINUTE, due));
+		assertEquals(-1, wheel.getNextExpiry());
+	}
+
+	public void testRescheduleAndCancel() {
+		TimerWheel<String> wheel = new TimerWheel<String>(8, 1000, START);
+		wheel.schedule("a", START + 2000);
+		wheel.schedule("b", START + 6000);
+		wheel.schedule("a", START + 9000);
+		assertEquals(START + 6000, wheel.getNextExpiry());
+
+		assertTrue(wheel.cancel("b"));
+		assertFalse(wheel.cancel("b"));
+		assertEquals(START + 9000, wheel.getNextExpiry());
+		assertEquals(1, wheel.size());
+
+		// A deadline already passed falls due at the next tick
+		wheel.schedule("late", START - MINUTE);
+		assertEquals(START + 1000, wheel.getNextExpiry());
+	}
+
+	public void testRescheduleEarliestLater() {
+		TimerWheel<String> wheel = new TimerWheel<String>(8, 1000, START);
+		wheel.schedule("a", START + 2000);
+		wheel.schedule("b", START + 6000);
+		assertEquals(START + 2000, wheel.getNextExpiry());
+
+		wheel.schedule("a", START + 9000);
+		assertEquals(START + 6000, wheel.getNextExpiry());
+
+		RecordingAlarm alarm = new RecordingAlarm();
+		PollScheduler<String> scheduler = new PollScheduler<String>(alarm, 64, 1000, START, new Random(1));
+		scheduler.schedule("space", 3 * MINUTE, START);
+		assertEquals(START + 3 * MINUTE, alarm.triggerAtTime);
+
+		scheduler.schedule("space", 10 * MINUTE, START + 1000);
+		assertEquals(scheduler.getNextPoll("space"), alarm.triggerAtTime);
+		assertEquals(START + 10 * MINUTE + 1000, alarm.triggerAtTime);
+	}
+
+	public void testSingleAlarmForEarliestEndpoint() {
+		RecordingAlarm alarm = new RecordingAlarm();
+		PollScheduler<Integer> scheduler = new PollScheduler<Integer>(alarm, 64, 1000, START, new Random(1));
+
+		scheduler.follow(Integer.valueOf(1), 5 * MINUTE, 0, START);
+		scheduler.follow(Integer.valueOf(2), 2 * MINUTE, 0, START);
+		scheduler.follow(Integer.valueOf(3), 10 * MINUTE, 0, START);
+		assertEquals(START + 2 * MINUTE, alarm.triggerAtTime);
+		assertEquals(2, alarm.sets);
+
+		List<Integer> due = new ArrayList<Integer>();
+		assertEquals(1, scheduler.expire(alarm.triggerAtTime, due));
+		assertEquals(Integer.valueOf(2), due.get(0));
+		assertEquals(START + 4 * MINUTE, alarm.triggerAtTime);
+
+		scheduler.schedule(Integer.valueOf(3), 0, START + 2 * MINUTE);
+		assertEquals(START + 2 * MINUTE + 1000, alarm.triggerAtTime);
+
+		scheduler.unfollow(Integer.valueOf(1));
+		scheduler.unfollow(Integer.valueOf(2));
+		scheduler.unfollow(Integer.valueOf(3));
+		assertEquals(-1, alarm.triggerAtTime);
+	}
+
+	public void testJitterStaysWithinBounds() {
+		RecordingAlarm alarm = new RecordingAlarm();
+		PollScheduler<Integer> scheduler = new PollScheduler<Integer>(alarm, 512, 1000, START, new Random(7));
+
+		for (int i = 0; i < 1000; i++)
+			scheduler.follow(Integer.valueOf(i), 5 * MINUTE, MINUTE, START);
+
+		Set<Long> ticks = new HashSet<Long>();
+		for (int i = 0; i < 1000; i++) {
+			long next = scheduler.getNextPoll(Integer.valueOf(i));
+			assertTrue(next >= START + 4 * MINUTE);
+			assertTrue(next <= START + 6 * MINUTE + 1000);
+			ticks.add(Long.valueOf(next));
+		}
+		assertTrue("jitter did not spread the polls", ticks.size() > 60);
+	}
+
+	public void testThousandsOfEndpoints() {
+		final int endpoints = 5000;
+		RecordingAlarm alarm = new RecordingAlarm();
+		PollScheduler<Integer> scheduler = new PollScheduler<Integer>(alarm, 512, 1000, START, new Random(3));
+
+		for (int i = 0; i < endpoints; i++)
+			scheduler.follow(Integer.valueOf(i), (1 + i % 30) * MINUTE, 10 * 1000, START);
+		assertEquals(endpoints, scheduler.size());
+
+		// Run an hour of wakeups, each at the alarm, and check every endpoint is polled on time and the batches are whole
+		long now = START;
+		long end = START + 60 * MINUTE;
+		int[] polls = new int[endpoints];
+		int wakeups = 0;
+		List<Integer> due = new ArrayList<Integer>();
+
+		while (alarm.triggerAtTime >= 0 && alarm.triggerAtTime <= end) {
+			assertTrue(alarm.triggerAtTime > now);
+			now = alarm.triggerAtTime;
+
+			due.clear();
+			assertTrue(scheduler.expire(now, due) > 0);
+			wakeups++;
+			for (Integer key : due) {
+				polls[key.intValue()]++;
+				assertTrue(scheduler.getNextPoll(key) > now);
+			}
+		}
+
+		assertEquals(endpoints, scheduler.size());
+		for (int i = 0; i < endpoints; i++) {
+			int interval = 1 + i % 30;
+			// Each poll is woken for at the start of a tick, so can be up to a tick later than its jittered deadline
+			assertTrue("endpoint " + i + " polled " + polls[i] + " times", polls[i] >= 60 / interval * 9 / 10 - 1);
+			assertTrue("endpoint " + i + " polled " + polls[i] + " times", polls[i] <= 60 / interval + 1);
+		}
+		// Endpoints sharing a tick share a wakeup, there are never more wakeups than ticks
+		assertTrue(wakeups <= 60 * 60);
+	}
+}
@@ -0,0 +1,151 @@
+package org.spoofer.techinc.test;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.sim.PollSimulator;
+import org.spoofer.techinc.sim.SimulationResult;
+import org.spoofer.techinc.sim.Timeline;
+import org.spoofer.techinc.state.AdaptivePollPolicy;
+import org.spoofer.techinc.state.FixedPollPolicy;
+import org.spoofer.techinc.state.StateDecider;
+
+public class TestPollSimulator extends TestCase {
+
+	private static final long SECOND = 1000L;
+	private static final long MINUTE = 60 * SECOND;
+	private static final long HOUR = 60 * MINUTE;
+	
+	
+	public void testDetected() {
+		Timeline timeline = new Timeline(0, HOUR, false,
+				new long[] { 10 * MINUTE + 30 * SECOND, 30 * MINUTE + 10 * SECOND }, new boolean[] { true, false });
+		SimulationResult result = new PollSimulator(timeline).run("fixed", new FixedPollPolicy(MINUTE), new StateDecider());
+		
+		assertEquals(60, result.getRequests());
+		assertEquals(2, result.getTransitions());
+		assertEquals(2, result.getDetected());
+		assertEquals(0, result.getMissed());
+		assertEquals(30 * SECOND, result.getLatencyPercentile(50));
+		assertEquals(50 * SECOND, result.getLatencyPercentile(100));
+	}
+	
+	public void testReversedBetweenPollsMissesBoth() {
+		Timeline timeline = new Timeline(0, HOUR, false,
+				new long[] { 10 * MINUTE + 10 * SECOND, 10 * MINUTE + 20 * SECOND }, new boolean[] { true, false });
+		SimulationResult result = new PollSimulator(timeline).run("fixed", new FixedPollPolicy(MINUTE), new StateDecider());
+		
+		assertEquals(0, result.getDetected());
+		assertEquals(2, result.getMissed());
+		assertEquals(-1, result.getLatencyPercentile(50));
+	}
+	
+	public void testReversedBeforeConfirmedMissesBoth() {
+		// The open is read once, then closed again before the second confirmation
+		Timeline timeline = new Timeline(0, HOUR, false,
+				new long[] { 10 * MINUTE + 10 * SECOND, 11 * MINUTE + 30 * SECOND }, new boolean[] { true, false });
+		SimulationResult result = new PollSimulator(timeline).run("confirmed", new FixedPollPolicy(MINUTE), new StateDecider(2));
+		
+		assertEquals(0, result.getDetected());
+		assertEquals(2, result.getMissed());
+	}
+	
+	public void testUnnotifiedAtEndIsMissed() {
+		Timeline timeline = new Timeline(0, 10 * MINUTE, false,
+				new long[] { 9 * MINUTE + 30 * SECOND, 10 * MINUTE }, new boolean[] { true, false });
+		SimulationResult result = new PollSimulator(timeline).run("fixed", new FixedPollPolicy(MINUTE), new StateDecider());
+		
+		assertEquals(2, result.getTransitions());
+		assertEquals(0, result.getDetected());
+		assertEquals(2, result.getMissed());
+	}
+	
+	public void testEveryChangeCounted() {
+		Timeline timeline = Timeline.synthetic(0, 365, 1);
+		PollSimulator simulator = new PollSimulator(timeline);
+		
+		SimulationResult[] results = new SimulationResult[] {
+				simulator.run("fixed 10m", new FixedPollPolicy(10 * MINUTE), new StateDecider()),
+				simulator.run("fixed 60s, 2 confirmations", new FixedPollPolicy(MINUTE), new StateDecider(2)),
+				simulator.run("adaptive 30s-15m x2", new AdaptivePollPolicy(30 * SECOND, 15 * MINUTE, 2.0), new StateDecider()) };
+		
+		for (SimulationResult result : results) {
+			assertEquals(result.getName(), timeline.getChangeCount(), result.getTransitions());
+			assertEquals(result.getName(), result.getTransitions(), result.getDetected() + result.getMissed());
+			assertTrue(result.getName(), result.getMissed() > 0);
+		}
+	}
+	
+	public void testSameSeedSameResult() {
+		SimulationResult first = new PollSimulator(Timeline.synthetic(0, 28, 7)).run("a", new FixedPollPolicy(MINUTE), new StateDecider());
+		SimulationResult second = new PollSimulator(Timeline.synthetic(0, 28, 7)).run("b", new FixedPollPolicy(MINUTE), new StateDecider());
+		
+		assertEquals(first.getRequests(), second.getRequests());
+		assertEquals(first.getMissed(), second.getMissed());
+		assertEquals(first.getLatencyPercentile(90), second.getLatencyPercentile(90));
+	}
+	
+	
+	public void testReadHistory() throws IOException {
+		Timeline timeline = Timeline.read(history("# recorded\n1000 closed\n\n2000 OPEN\n3000 closed\n"));
+		
+		assertEquals(1000, timeline.getStart());
+		assertEquals(3000, timeline.getEnd());
+		assertFalse(timeline.getInitialState());
+		assertEquals(2, timeline.getChangeCount());
+		assertEquals(2000, timeline.getChangeTime(0));
+		assertTrue(timeline.getChangeState(0));
+		assertFalse(timeline.getChangeState(1));
+	}
+	
+	public void testReadRejectsOutOfOrder() {
+		assertInvalid("1000 closed\n3000 open\n2000 closed\n");
+		assertInvalid("1000 closed\n1000 open\n");
+	}
+	
+	public void testReadRejectsUnknownState() {
+		assertInvalid("1000 closed\n2000 opened\n");
+	}
+	
+	public void testReadRejectsUnchangedState() {
+		assertInvalid("1000 closed\n2000 open\n3000 open\n");
+	}
+	
+	public void testConstructorRejectsOutOfOrder() {
+		try {
+			new Timeline(0, HOUR, false, new long[] { 2 * MINUTE, MINUTE }, new boolean[] { true, false });
+			fail("out of order changes accepted");
+		} catch (IllegalArgumentException e) {
+		}
+		try {
+			new Timeline(0, HOUR, false, new long[] { 2 * HOUR }, new boolean[] { true });
+			fail("change after the end accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	
+	private void assertInvalid(String contents) {
+		try {
+			Timeline.read(history(contents));
+			fail("invalid history accepted: " + contents);
+		} catch (IOException e) {
+		}
+	}
+	
+	private File history(String contents) throws IOException {
+		File file = File.createTempFile("history", ".txt");
+		file.deleteOnExit();
+		
+		FileWriter out = new FileWriter(file);
+		try {
+			out.write(contents);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+}
@@ -0,0 +1,50 @@
+package org.spoofer.techinc.test;
+
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.load.LocalStateServer;
+import org.spoofer.techinc.state.PreviewReader;
+
+public class TestPreviewReader extends TestCase {
+
+	private LocalStateServer server;
+	
+	
+	@Override
+	protected void setUp() throws Exception {
+		server = new LocalStateServer(0, 2);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		server.close();
+	}
+	
+	
+	public void testDirectedDelay() throws IOException {
+		server.setNextPoll(30);
+		PreviewReader reader = new PreviewReader(server.getURL());
+		
+		assertEquals("open", reader.getPreview(1));
+		assertEquals(30000, reader.getSuggestedPollDelay());
+		assertTrue(reader.isPollDelayDirected());
+	}
+	
+	public void testFailureClearsDirectedDelay() throws IOException {
+		server.setNextPoll(30);
+		PreviewReader reader = new PreviewReader(server.getURL());
+		reader.getPreview(1);
+		
+		// The next connection is refused, so has no directive of its own
+		server.close();
+		try {
+			reader.getPreview(1);
+			fail("preview read from a closed server");
+		} catch (IOException e) {
+		}
+		assertEquals(-1, reader.getSuggestedPollDelay());
+		assertFalse(reader.isPollDelayDirected());
+	}
+}
@@ -0,0 +1,57 @@
+package org.spoofer.techinc.test;
+
+import org.spoofer.techinc.Preferences;
+import org.spoofer.techinc.state.RequestBudget;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+
+public class TestRequestBudget extends AndroidTestCase {
+
+	private static final String BUDGET_NAME = "techinc_budget";
+	
+	private Preferences preferences;
+	
+	
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		clearBudget();
+		
+		// Left uncommitted, so the app's own preferences are untouched
+		preferences = new Preferences(getContext());
+		preferences.setRequestRate(1);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		clearBudget();
+		super.tearDown();
+	}
+	
+	
+	public void testSingleRequestSurvivesRestart() {
+		preferences.setRequestBurst(1);
+		
+		assertEquals(0, new RequestBudget(getContext(), preferences).acquire());
+		
+		// A new process starts with the budget as the last one left it
+		assertTrue(new RequestBudget(getContext(), preferences).acquire() > 0);
+	}
+	
+	public void testBurstSurvivesRestart() {
+		preferences.setRequestBurst(3);
+		
+		RequestBudget budget = new RequestBudget(getContext(), preferences);
+		for (int i = 0; i < 3; i++)
+			assertEquals(0, budget.acquire());
+		assertTrue(budget.acquire() > 0);
+		
+		assertTrue(new RequestBudget(getContext(), preferences).acquire() > 0);
+	}
+	
+	
+	private void clearBudget() {
+		getContext().getSharedPreferences(BUDGET_NAME, Context.MODE_PRIVATE).edit().clear().commit();
+	}
+}
@@ -0,0 +1,137 @@
+package org.spoofer.techinc.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.state.FieldDelta;
+import org.spoofer.techinc.state.FieldSubscription;
+import org.spoofer.techinc.state.StateReader;
+
+public class TestStatusSubscriptions extends TestCase {
+
+	private static final String STATUS = "{\"api\":\"0.13\",\"space\":\"Techinc\","
+			+ "\"contact\":{\"email\":\"x@example.org\",\"keymasters\":[{\"name\":\"a\"},{\"name\":\"b\"}]},"
+			+ "\"state\":{\"open\":%s,\"message\":\"%s\"},"
+			+ "\"sensors\":{\"people_now_present\":[{\"value\":%d,\"names\":[\"a\\\"b\",\"c\"]}],"
+			+ "\"temperature\":[{\"value\":21.5,\"unit\":\"\\u00b0C\",\"location\":\"hall\"}]}}";
+
+
+	/**
+	 * A State Reader which reads the state from a given response, in place of a connection.
+	 */
+	private static class StreamStateReader extends StateReader {
+
+		private String response;
+
+		public StreamStateReader() throws MalformedURLException {
+			super("http://127.0.0.1/spacestate");
+		}
+
+		public boolean getState(String response) throws IOException {
+			this.response = response;
+			return getState();
+		}
+
+		@Override
+		protected InputStream openStream() throws IOException {
+			return new ByteArrayInputStream(response.getBytes("UTF-8"));
+		}
+	}
+
+
+	public void testParseList() {
+		List<FieldSubscription> subscriptions = FieldSubscription.parseList("sensors.people_now_present.0.value>=3, state.message,");
+
+		assertEquals(2, subscriptions.size());
+		assertEquals("sensors.people_now_present.0.value", subscriptions.get(0).getPath());
+		assertEquals(3.0, subscriptions.get(0).getThreshold(), 0);
+		assertTrue(Double.isNaN(subscriptions.get(1).getThreshold()));
+
+		try {
+			FieldSubscription.parseList("state.message>=lots");
+			fail("invalid threshold accepted");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testPlainTextState() throws IOException {
+		StreamStateReader reader = new StreamStateReader();
+
+		assertTrue(reader.getState("open\n"));
+		assertFalse(reader.getState("closed\n"));
+		assertNull(reader.getSnapshot());
+	}
+
+	public void testStatusStateAndFields() throws IOException {
+		StreamStateReader reader = new StreamStateReader();
+		reader.setSubscriptions(FieldSubscription.parseList(
+				"state.message, sensors.people_now_present.0.value, sensors.temperature.0.unit, contact.keymasters.1.name"));
+
+		assertTrue(reader.getState(status(true, "Come \\\"in\\\"", 4)));
+		assertEquals("Come \"in\"", reader.getSnapshot().getValue("state.message"));
+		assertEquals(4.0, reader.getSnapshot().getValue("sensors.people_now_present.0.value"));
+		assertEquals("\u00b0C", reader.getSnapshot().getValue("sensors.temperature.0.unit"));
+		assertEquals("b", reader.getSnapshot().getValue("contact.keymasters.1.name"));
+		assertTrue(reader.getDeltas().isEmpty());
+
+		assertFalse(reader.getState(status(false, "Come \\\"in\\\"", 4)));
+		assertTrue(reader.getDeltas().isEmpty());
+	}
+
+	public void testThresholdCrossing() throws IOException {
+		StreamStateReader reader = new StreamStateReader();
+		reader.setSubscriptions(FieldSubscription.parseList("sensors.people_now_present.0.value>=3"));
+
+		reader.getState(status(true, "", 1));
+		reader.getState(status(true, "", 2));
+		assertTrue(reader.getDeltas().isEmpty());
+
+		reader.getState(status(true, "", 5));
+		List<FieldDelta> deltas = reader.getDeltas();
+		assertEquals(1, deltas.size());
+		assertEquals("sensors.people_now_present.0.value 2 -> 5", deltas.get(0).toString());
+
+		reader.getState(status(true, "", 7));
+		assertTrue(reader.getDeltas().isEmpty());
+
+		reader.getState(status(true, "", 0));
+		assertEquals(1, reader.getDeltas().size());
+	}
+
+	public void testAnyChange() throws IOException {
+		StreamStateReader reader = new StreamStateReader();
+		reader.setSubscriptions(FieldSubscription.parseList("state.message"));
+
+		reader.getState(status(true, "Open for soldering", 1));
+		reader.getState(status(true, "Open for soldering", 6));
+		assertTrue(reader.getDeltas().isEmpty());
+
+		reader.getState(status(true, "Closing soon", 6));
+		assertEquals(1, reader.getDeltas().size());
+		assertEquals("Closing soon", reader.getDeltas().get(0).getCurrent());
+	}
+
+	public void testInvalidStatus() throws MalformedURLException {
+		StreamStateReader reader = new StreamStateReader();
+		try {
+			reader.getState("{\"state\":{\"message\":\"no open field\"}}");
+			fail("status without a state accepted");
+		} catch (IOException e) {
+		}
+		try {
+			reader.getState("{\"state\":{\"open\":true");
+			fail("truncated status accepted");
+		} catch (IOException e) {
+		}
+	}
+
+
+	private static String status(boolean open, String message, int people) {
+		return String.format(STATUS, Boolean.valueOf(open), message, Integer.valueOf(people));
+	}
+}
@@ -0,0 +1,38 @@
+package org.spoofer.techinc.test;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.load.LocalTlsStateServer;
+import org.spoofer.techinc.state.StateReader;
+import org.spoofer.techinc.state.TlsSessionContext;
+
+public class TestTlsSessionResumption extends TestCase {
+
+	private static final int POLLS = 4;
+	
+	
+	public void testPollsResumeSession() {
+		LocalTlsStateServer server = null;
+		try {
+			server = LocalTlsStateServer.start(0, 2);
+			TlsSessionContext tlsContext = new TlsSessionContext(server.getTrustManagers());
+			
+			for (int i = 0; i < POLLS; i++) {
+				StateReader reader = new StateReader(server.getURL());
+				reader.setTlsContext(tlsContext);
+				assertTrue(reader.getState());
+			}
+			
+			assertEquals(POLLS, server.getHandshakes());
+			assertEquals(POLLS - 1, server.getResumedHandshakes());
+			
+		} catch (Exception e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+			
+		} finally {
+			if (null != server)
+				server.close();
+		}
+	}
+}
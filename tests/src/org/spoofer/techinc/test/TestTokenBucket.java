@@ -0,0 +1,50 @@
+package org.spoofer.techinc.test;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.state.TokenBucket;
+
+public class TestTokenBucket extends TestCase {
+
+	private static final double ONE_PER_SECOND = 1 / 1000.0;
+	
+	
+	public void testBurstThenSustainedRate() {
+		TokenBucket bucket = new TokenBucket(3, ONE_PER_SECOND, 0);
+		
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(0, bucket.tryAcquire(0));
+		assertEquals(1000, bucket.tryAcquire(0));
+		
+		assertEquals(500, bucket.tryAcquire(500));
+		assertEquals(0, bucket.tryAcquire(1000));
+		assertTrue(bucket.tryAcquire(1000) > 0);
+	}
+	
+	public void testRefillIsCappedAtCapacity() {
+		TokenBucket bucket = new TokenBucket(2, ONE_PER_SECOND, 0, 0);
+		
+		assertEquals(0, bucket.tryAcquire(60000));
+		assertEquals(0, bucket.tryAcquire(60000));
+		assertTrue(bucket.tryAcquire(60000) > 0);
+	}
+	
+	public void testRestoredBucketKeepsItsState() {
+		TokenBucket bucket = new TokenBucket(5, ONE_PER_SECOND, 1000);
+		for (int i = 0; i < 5; i++)
+			bucket.tryAcquire(1000);
+		
+		TokenBucket restored = new TokenBucket(5, ONE_PER_SECOND, bucket.getTokens(), bucket.getLastRefill());
+		assertTrue(restored.tryAcquire(1000) > 0);
+		assertEquals(0, restored.tryAcquire(2000));
+	}
+	
+	public void testClockSetBackDoesNotRefill() {
+		TokenBucket bucket = new TokenBucket(1, ONE_PER_SECOND, 100000);
+		assertEquals(0, bucket.tryAcquire(100000));
+		
+		assertEquals(1000, bucket.tryAcquire(5000));
+		assertEquals(0, bucket.tryAcquire(6000));
+	}
+}
@@ -0,0 +1,133 @@
+package org.spoofer.techinc.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.trace.TraceBuffer;
+import org.spoofer.techinc.trace.TraceEvent;
+import org.spoofer.techinc.trace.TraceRecord;
+
+public class TestTraceBuffer extends TestCase {
+
+	// The layout of a raw trace, see TraceBuffer
+	private static final int HEADER_SIZE = 32;
+	private static final int RECORD_SIZE = 24;
+	
+	
+	public void testRecordAndRead() {
+		long before = System.currentTimeMillis() * 1000000L;
+		TraceBuffer trace = new TraceBuffer(8);
+		trace.record(TraceEvent.ALARM, 1);
+		trace.record(TraceEvent.RESPONSE, 1234);
+		trace.record(TraceEvent.NOTIFY, -1);
+		
+		List<TraceRecord> records = trace.snapshot();
+		assertEquals(3, records.size());
+		assertEquals(3, trace.getCount());
+		
+		assertEquals(0, records.get(0).getSequence());
+		assertEquals(TraceEvent.ALARM, records.get(0).getEvent());
+		assertEquals(1, records.get(0).getArg());
+		assertEquals(TraceEvent.RESPONSE, records.get(1).getEvent());
+		assertEquals(1234, records.get(1).getArg());
+		assertEquals(TraceEvent.NOTIFY, records.get(2).getEvent());
+		assertEquals(-1, records.get(2).getArg());
+		
+		// The clock is only millisecond accurate, so allow for it when comparing with the nanosecond times
+		for (TraceRecord record : records)
+			assertTrue(record.getTime() >= before - 1000000L);
+		assertTrue(records.get(1).getTime() >= records.get(0).getTime());
+		
+		// The raw trace decodes to the same records
+		assertEquals(records.toString(), TraceBuffer.read(ByteBuffer.wrap(trace.toByteArray())).toString());
+	}
+	
+	public void testWrapAround() {
+		TraceBuffer trace = new TraceBuffer(8);
+		for (int i = 0; i < 21; i++)
+			trace.record(TraceEvent.SCHEDULE, i);
+		
+		List<TraceRecord> records = trace.snapshot();
+		assertEquals(21, trace.getCount());
+		assertEquals(8, records.size());
+		
+		// Only the newest records are left, oldest first, even though the ring's slots start part way through
+		for (int i = 0; i < 8; i++) {
+			assertEquals(13 + i, records.get(i).getSequence());
+			assertEquals(13 + i, records.get(i).getArg());
+		}
+	}
+	
+	public void testTornRecordSkipped() {
+		TraceBuffer trace = new TraceBuffer(8);
+		for (int i = 0; i < 10; i++)
+			trace.record(TraceEvent.PARSE, i);
+		
+		// A writer has claimed sequence 10 and marked its slot, but not yet finished the record
+		ByteBuffer raw = ByteBuffer.wrap(trace.toByteArray());
+		raw.putLong(HEADER_SIZE + (10 & 7) * RECORD_SIZE, ~10L);
+		
+		List<TraceRecord> records = TraceBuffer.read(raw);
+		assertEquals(7, records.size());
+		assertEquals(3, records.get(0).getSequence());
+		for (TraceRecord record : records)
+			assertTrue(record.getSequence() != 2 && record.getSequence() != 10);
+	}
+	
+	public void testMisplacedRecordSkipped() {
+		TraceBuffer trace = new TraceBuffer(8);
+		for (int i = 0; i < 4; i++)
+			trace.record(TraceEvent.PARSE, i);
+		
+		// A sequence number which does not belong in its slot can only be left by a torn write
+		ByteBuffer raw = ByteBuffer.wrap(trace.toByteArray());
+		raw.putLong(HEADER_SIZE + 1 * RECORD_SIZE, 5);
+		
+		List<TraceRecord> records = TraceBuffer.read(raw);
+		assertEquals(3, records.size());
+		assertEquals(0, records.get(0).getSequence());
+		assertEquals(2, records.get(1).getSequence());
+		assertEquals(3, records.get(2).getSequence());
+	}
+	
+	public void testNotATrace() {
+		try {
+			TraceBuffer.read(ByteBuffer.allocate(HEADER_SIZE + 8 * RECORD_SIZE));
+			fail("empty buffer read as a trace");
+		} catch (IllegalArgumentException e) {
+		}
+		
+		byte[] truncated = new byte[HEADER_SIZE + 4 * RECORD_SIZE];
+		System.arraycopy(new TraceBuffer(8).toByteArray(), 0, truncated, 0, truncated.length);
+		try {
+			TraceBuffer.read(ByteBuffer.wrap(truncated));
+			fail("truncated trace read");
+		} catch (IllegalArgumentException e) {
+		}
+	}
+	
+	public void testMappedTraceCarriesOn() throws IOException {
+		File file = File.createTempFile("engine", ".trace");
+		file.deleteOnExit();
+		
+		TraceBuffer first = TraceBuffer.map(file, 8);
+		for (int i = 0; i < 5; i++)
+			first.record(TraceEvent.ALARM, i);
+		
+		TraceBuffer second = TraceBuffer.map(file, 8);
+		assertEquals(5, second.getCount());
+		second.record(TraceEvent.STOP, 0);
+		
+		List<TraceRecord> records = second.snapshot();
+		assertEquals(6, records.size());
+		assertEquals(5, records.get(5).getSequence());
+		assertEquals(TraceEvent.STOP, records.get(5).getEvent());
+		
+		// A trace of another capacity is started again
+		assertEquals(0, TraceBuffer.map(file, 16).getCount());
+	}
+}
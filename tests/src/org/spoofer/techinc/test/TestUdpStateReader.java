@@ -0,0 +1,84 @@
+package org.spoofer.techinc.test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.SocketTimeoutException;
+
+import junit.framework.TestCase;
+
+import org.spoofer.techinc.load.UdpStateResponder;
+import org.spoofer.techinc.state.UdpStateReader;
+
+public class TestUdpStateReader extends TestCase {
+
+	private static final byte[] KEY = "test key".getBytes();
+	
+	private UdpStateResponder responder;
+	
+	@Override
+	protected void setUp() throws Exception {
+		responder = new UdpStateResponder(InetAddress.getByName("127.0.0.1"), 0, KEY);
+	}
+	
+	@Override
+	protected void tearDown() throws Exception {
+		responder.close();
+	}
+	
+	
+	public void testGetState() {
+		try {
+			responder.setState(false);
+			responder.setNextPoll(300);
+			
+			UdpStateReader reader = new UdpStateReader(responder.getLocation(), KEY);
+			assertFalse(reader.getState());
+			assertEquals(300, reader.getNextPoll());
+			int sequence = reader.getSequence();
+			
+			responder.setState(true);
+			assertTrue(reader.getState());
+			assertEquals(sequence + 1, reader.getSequence());
+			
+		} catch (IOException e) {
+			e.printStackTrace();
+			fail(e.getMessage());
+		}
+	}
+	
+	
+	public void testWrongKeyIsRejected() {
+		UdpStateReader reader = new UdpStateReader(responder.getLocation(), "wrong key".getBytes());
+		reader.setTimeout(100);
+		reader.setAttempts(2);
+		
+		try {
+			reader.getState();
+			fail("reply signed with a different key was accepted");
+			
+		} catch (SocketTimeoutException e) {
+			// expected
+		} catch (IOException e) {
+			fail(e.getMessage());
+		}
+	}
+	
+	public void testTimeoutClearsNextPoll() throws IOException {
+		responder.setNextPoll(300);
+		UdpStateReader reader = new UdpStateReader(responder.getLocation(), KEY);
+		reader.getState();
+		assertEquals(300000, reader.getSuggestedPollDelay());
+		
+		responder.close();
+		reader.setTimeout(100);
+		reader.setAttempts(1);
+		try {
+			reader.getState();
+			fail("state read from a closed responder");
+		} catch (SocketTimeoutException e) {
+			// expected
+		}
+		assertEquals(-1, reader.getSuggestedPollDelay());
+		assertEquals(-1, reader.getSequence());
+	}
+}